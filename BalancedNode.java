@@ -0,0 +1,77 @@
+package application;
+
+/*
+ * The key independent part of a red-black tree node: color and links. TreeNode adds an int value, LongTree and
+ * KeyTree their own keys, so that all of them are balanced by the same BalancedTree code. N is the concrete node type, so
+ * that the links have that type.
+ */
+public class BalancedNode<N extends BalancedNode<N>> {
+	private int color = RED; //the color of the node, either BLACK or RED
+	private N left; //the left child of the node
+	private N right; //the right child of the node
+	private N parent; //the parent of the node
+	private boolean left_child_of_parent; //an indicator if this node is the left child of its parent
+										  //true - left
+										  //false - right
+
+	//Static members for color assignment
+	public static final int BLACK = 0;
+	public static final int RED = 1;
+
+	//Recompute the sub-tree aggregates from the children; only called once the tree keeps aggregates, nodes without any ignore it
+	void updateAggregates() {
+	}
+
+	//Below are setters and getters
+	public N getLeft() {
+		return left;
+	}
+
+	public void setLeft(N left) {
+		this.left = left;
+	}
+
+	public N getRight() {
+		return right;
+	}
+
+	public void setRight(N right) {
+		this.right = right;
+	}
+
+	public N getParent() {
+		return parent;
+	}
+
+	public void setParent(N parent) {
+		this.parent = parent;
+	}
+
+	public boolean isLeft_child_of_parent() {
+		return left_child_of_parent;
+	}
+
+	public void setLeft_child_of_parent(boolean left_child_of_parent) {
+		this.left_child_of_parent = left_child_of_parent;
+	}
+
+	//Count the ancestors of this node; the depth is not stored, so that no insert, delete or rotation has to keep it up to date
+	public int getDepth() {
+		int depth = 0;
+		for (N node = parent; node != null; node = node.getParent())
+			depth++;
+		return depth;
+	}
+
+	public int getColor() {
+		return color;
+	}
+
+	public void setColor(int color) {
+		this.color = color;
+	}
+
+	public boolean isRed() {
+		return color == RED;
+	}
+}
@@ -0,0 +1,433 @@
+package application;
+
+import java.util.ArrayDeque;
+
+/*
+ * The key independent part of the red-black trees: linking a new leaf and unlinking a node, the fixups that restore the
+ * red-black properties after them, and the rotations, with the optional sub-tree aggregates and the TreeMetrics counts
+ * kept up to date. The subclasses search by their own keys (RedBlackTree by int, LongTree by long, and KeyTree through a
+ * Comparator) and call attachLeaf() and unlink() with the position they found, so no key is ever boxed or compared here.
+ *
+ * The protected hooks let a subclass follow the structural changes; they do nothing by default.
+ */
+public abstract class BalancedTree<N extends BalancedNode<N>> {
+	protected N root; // the root node of the tree
+	protected int size = 0; // the number of nodes in the tree
+	protected boolean aggregates_enabled = false; // whether the nodes keep their sub-tree aggregates, see RedBlackTree.enableAggregates()
+	private int operation_rotations; // rotations of the running insert or delete, for TreeMetrics
+	private int operation_recolors; // color changes of the running insert or delete, for TreeMetrics
+
+	/* Called after "node" got a new parent or became the root, i.e. its whole sub-tree moved */
+	protected void subTreeMoved(N node) {
+	}
+
+	/* Called before the links around "node" are changed */
+	protected void beforeRelink(N node) {
+	}
+
+	/* Called after "node" was unlinked from the tree by delete() */
+	protected void nodeRemoved(N node) {
+	}
+
+	/* Called before bulkLoad(), load() or a set operation replaces the whole content of the tree */
+	protected void contentReplaced() {
+	}
+
+	/*
+	 * Called on the calling thread before and after a set operation changes the nodes on fork-join workers. In between, the
+	 * other hooks are not called, and the nodes must not reach any state of the subclass that is not thread-safe.
+	 */
+	protected void parallelChangeStarted() {
+	}
+
+	protected void parallelChangeFinished() {
+	}
+
+	/*
+	 * Link "node" as a new leaf below "parent", on the left side if "is_left" (or as the root if "parent" is null), and
+	 * restore the red-black properties. The subclass finds the position by searching its keys.
+	 */
+	protected final void attachLeaf(N node, N parent, boolean is_left) {
+		operation_rotations = 0;
+		operation_recolors = 0;
+		
+		//A new node always enters the tree as a red leaf; insertFixup() restores the red-black properties afterwards
+		node.setColor(BalancedNode.RED);
+		node.setLeft(null);
+		node.setRight(null);
+		node.setParent(parent);
+		
+		if (parent == null) {
+			root = node; // let the root point to the current node
+		} else {
+			if (is_left)
+				parent.setLeft(node);
+			else
+				parent.setRight(node);
+			node.setLeft_child_of_parent(is_left);
+		}
+		subTreeMoved(node);
+		
+		if (aggregates_enabled)
+			updateAggregatesUpward(node);
+		insertFixup(node);
+		size++;
+	}
+
+	/*
+	 * Restore the red-black properties after inserting the red node "node". Walking up the tree, a red uncle is handled by
+	 * recoloring (and the violation moves two levels up), a black uncle by at most two rotations, after which we are done.
+	 */
+	private void insertFixup(N node) {
+		
+		while (node != root && node.getParent().isRed()) {
+			N parent = node.getParent();
+			N grand_parent = parent.getParent(); //a red parent is never the root, so the grand parent exists
+			
+			if (parent.isLeft_child_of_parent()) {
+				N uncle = grand_parent.getRight();
+				if (uncle != null && uncle.isRed()) //case 1: recolor and continue from the grand parent
+				{
+					recolor(parent, BalancedNode.BLACK);
+					recolor(uncle, BalancedNode.BLACK);
+					recolor(grand_parent, BalancedNode.RED);
+					node = grand_parent;
+				}
+				else
+				{
+					if (!node.isLeft_child_of_parent()) //case 2: turn the inner child into an outer child
+					{
+						node = parent;
+						rotateLeft(node);
+						parent = node.getParent();
+					}
+					//case 3: rotate the grand parent down to the other side
+					recolor(parent, BalancedNode.BLACK);
+					recolor(grand_parent, BalancedNode.RED);
+					rotateRight(grand_parent);
+				}
+			} else {
+				N uncle = grand_parent.getLeft();
+				if (uncle != null && uncle.isRed())
+				{
+					recolor(parent, BalancedNode.BLACK);
+					recolor(uncle, BalancedNode.BLACK);
+					recolor(grand_parent, BalancedNode.RED);
+					node = grand_parent;
+				}
+				else
+				{
+					if (node.isLeft_child_of_parent())
+					{
+						node = parent;
+						rotateRight(node);
+						parent = node.getParent();
+					}
+					recolor(parent, BalancedNode.BLACK);
+					recolor(grand_parent, BalancedNode.RED);
+					rotateLeft(grand_parent);
+				}
+			}
+		}
+		
+		recolor(root, BalancedNode.BLACK);
+	}
+
+	/*
+	 * Unlink "target_node", which the subclass found by searching its keys, and restore the red-black properties. A node with
+	 * two children is replaced by its in-order successor, so only a node with at most one child is ever unlinked.
+	 */
+	protected final void unlink(N target_node) {
+		operation_rotations = 0;
+		operation_recolors = 0;
+
+		N removed_node = target_node; //the node that actually leaves its position in the tree
+		int removed_color = removed_node.getColor();
+		N child; //the node that moves into removed_node's position (may be null)
+		N child_parent; //the parent of child after the removal, tracked separately because child may be null
+		boolean child_is_left;
+
+		if (target_node.getLeft() == null) {
+			child = target_node.getRight();
+			child_parent = target_node.getParent();
+			child_is_left = target_node.isLeft_child_of_parent();
+			replaceChild(target_node, child);
+		} else if (target_node.getRight() == null) {
+			child = target_node.getLeft();
+			child_parent = target_node.getParent();
+			child_is_left = target_node.isLeft_child_of_parent();
+			replaceChild(target_node, child);
+		} else {
+			removed_node = minimum(target_node.getRight());
+			removed_color = removed_node.getColor();
+			child = removed_node.getRight();
+
+			if (removed_node.getParent() == target_node) {
+				child_parent = removed_node;
+				child_is_left = false;
+			} else {
+				child_parent = removed_node.getParent();
+				child_is_left = true;
+				replaceChild(removed_node, child);
+				removed_node.setRight(target_node.getRight());
+				removed_node.getRight().setParent(removed_node);
+			}
+
+			replaceChild(target_node, removed_node);
+			removed_node.setLeft(target_node.getLeft());
+			removed_node.getLeft().setParent(removed_node);
+			removed_node.setColor(target_node.getColor());
+		}
+
+		//Detach the deleted node completely so that it cannot be reached from the tree anymore
+		target_node.setLeft(null);
+		target_node.setRight(null);
+		target_node.setParent(null);
+		nodeRemoved(target_node);
+
+		if (aggregates_enabled)
+			updateAggregatesUpward(child_parent); //every node whose sub-tree lost a node is on this path
+		if (removed_color == BalancedNode.BLACK)
+			deleteFixup(child, child_parent, child_is_left);
+		size--;
+	}
+
+	/*
+	 * Restore the red-black properties after a black node is removed. "node" carries an extra black; "parent" and "is_left"
+	 * describe its position because "node" may be null. Either the extra black is pushed up by recoloring the sibling, or it
+	 * is absorbed by at most three rotations.
+	 */
+	private void deleteFixup(N node, N parent, boolean is_left) {
+
+		while (node != root && isBlack(node)) {
+			if (is_left) {
+				N sibling = parent.getRight(); //the sibling of a doubly black node always exists
+				if (sibling.isRed()) //case 1: make the sibling black
+				{
+					recolor(sibling, BalancedNode.BLACK);
+					recolor(parent, BalancedNode.RED);
+					rotateLeft(parent);
+					sibling = parent.getRight();
+				}
+
+				if (isBlack(sibling.getLeft()) && isBlack(sibling.getRight())) //case 2: move the extra black up
+				{
+					recolor(sibling, BalancedNode.RED);
+					node = parent;
+					parent = node.getParent();
+					is_left = node.isLeft_child_of_parent();
+				}
+				else
+				{
+					if (isBlack(sibling.getRight())) //case 3: turn the inner red nephew into an outer one
+					{
+						recolor(sibling.getLeft(), BalancedNode.BLACK);
+						recolor(sibling, BalancedNode.RED);
+						rotateRight(sibling);
+						sibling = parent.getRight();
+					}
+					//case 4: rotate the parent down and absorb the extra black
+					recolor(sibling, parent.getColor());
+					recolor(parent, BalancedNode.BLACK);
+					recolor(sibling.getRight(), BalancedNode.BLACK);
+					rotateLeft(parent);
+					node = root;
+				}
+			} else {
+				N sibling = parent.getLeft();
+				if (sibling.isRed())
+				{
+					recolor(sibling, BalancedNode.BLACK);
+					recolor(parent, BalancedNode.RED);
+					rotateRight(parent);
+					sibling = parent.getLeft();
+				}
+
+				if (isBlack(sibling.getLeft()) && isBlack(sibling.getRight()))
+				{
+					recolor(sibling, BalancedNode.RED);
+					node = parent;
+					parent = node.getParent();
+					is_left = node.isLeft_child_of_parent();
+				}
+				else
+				{
+					if (isBlack(sibling.getLeft()))
+					{
+						recolor(sibling.getRight(), BalancedNode.BLACK);
+						recolor(sibling, BalancedNode.RED);
+						rotateLeft(sibling);
+						sibling = parent.getLeft();
+					}
+					recolor(sibling, parent.getColor());
+					recolor(parent, BalancedNode.BLACK);
+					recolor(sibling.getLeft(), BalancedNode.BLACK);
+					rotateRight(parent);
+					node = root;
+				}
+			}
+		}
+
+		if (node != null)
+			recolor(node, BalancedNode.BLACK);
+	}
+
+	/* Missing children count as black leaves */
+	private boolean isBlack(N node) {
+		return node == null || !node.isRed();
+	}
+
+	/* Return the node with the smallest value in the sub-tree rooted at "node" */
+	private N minimum(N node) {
+		while (node.getLeft() != null)
+			node = node.getLeft();
+		return node;
+	}
+
+	/* Rotate "node" down to the left; its right child takes its place. Parent links and left_child_of_parent are kept in sync */
+	private void rotateLeft(N node) {
+		operation_rotations++;
+		N pivot = node.getRight();
+		
+		node.setRight(pivot.getLeft());
+		if (pivot.getLeft() != null) {
+			beforeRelink(pivot.getLeft());
+			pivot.getLeft().setParent(node);
+			pivot.getLeft().setLeft_child_of_parent(false);
+		}
+		
+		replaceChild(node, pivot);
+		
+		pivot.setLeft(node);
+		node.setParent(pivot);
+		node.setLeft_child_of_parent(true);
+		
+		//only node and pivot have new children; node is below pivot now, so it is updated first
+		if (aggregates_enabled) {
+			node.updateAggregates();
+			pivot.updateAggregates();
+		}
+	}
+
+	/* Rotate "node" down to the right; its left child takes its place. Parent links and left_child_of_parent are kept in sync */
+	private void rotateRight(N node) {
+		operation_rotations++;
+		N pivot = node.getLeft();
+		
+		node.setLeft(pivot.getRight());
+		if (pivot.getRight() != null) {
+			beforeRelink(pivot.getRight());
+			pivot.getRight().setParent(node);
+			pivot.getRight().setLeft_child_of_parent(true);
+		}
+		
+		replaceChild(node, pivot);
+		
+		pivot.setRight(node);
+		node.setParent(pivot);
+		node.setLeft_child_of_parent(false);
+		
+		//only node and pivot have new children; node is below pivot now, so it is updated first
+		if (aggregates_enabled) {
+			node.updateAggregates();
+			pivot.updateAggregates();
+		}
+	}
+
+	/* Set the color of "node" during a fixup, counting the changes for TreeMetrics */
+	private void recolor(N node, int color) {
+		if (node.getColor() != color)
+			operation_recolors++;
+		node.setColor(color);
+	}
+
+	protected final void recordInsert(int comparisons) {
+		TreeMetrics.inserts.increment();
+		TreeMetrics.comparisons_per_descent.record(comparisons);
+		TreeMetrics.rotations_per_insert.record(operation_rotations);
+		TreeMetrics.recolors_per_insert.record(operation_recolors);
+		TreeMetrics.rotations.add(operation_rotations);
+		TreeMetrics.recolors.add(operation_recolors);
+	}
+
+	protected final void recordDelete(int comparisons) {
+		TreeMetrics.deletes.increment();
+		TreeMetrics.comparisons_per_descent.record(comparisons);
+		TreeMetrics.rotations.add(operation_rotations);
+		TreeMetrics.recolors.add(operation_recolors);
+	}
+
+	/* Let "replacement" take the place of "node" under node's parent (or as the root) */
+	private void replaceChild(N node, N replacement) {
+		N parent = node.getParent();
+		
+		//the links around both nodes are about to change
+		beforeRelink(node);
+		if (replacement != null)
+			beforeRelink(replacement);
+		
+		if (replacement != null) {
+			replacement.setParent(parent);
+			replacement.setLeft_child_of_parent(node.isLeft_child_of_parent());
+			subTreeMoved(replacement); //the whole sub-tree of replacement moves to a new place
+		}
+		
+		if (parent == null)
+			root = replacement;
+		else if (node.isLeft_child_of_parent())
+			parent.setLeft(replacement);
+		else
+			parent.setRight(replacement);
+	}
+
+	/* Recompute the aggregates of "node" and all its ancestors */
+	private void updateAggregatesUpward(N node) {
+		while (node != null) {
+			node.updateAggregates();
+			node = node.getParent();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/* Return the number of nodes on the longest path from the root down (0 for an empty tree), walking the whole tree */
+	public int height() {
+		int height = 0;
+		ArrayDeque<N> layer = new ArrayDeque<N>();
+		if (root != null)
+			layer.add(root);
+
+		//Breadth-first, one layer at a time
+		while (!layer.isEmpty()) {
+			height++;
+			for (int i = layer.size(); i > 0; i--) {
+				N node = layer.remove();
+				if (node.getLeft() != null)
+					layer.add(node.getLeft());
+				if (node.getRight() != null)
+					layer.add(node.getRight());
+			}
+		}
+		return height;
+	}
+
+	/* Return the number of black nodes on every path from the root to a leaf */
+	public int blackHeight() {
+		int black_height = 0;
+		for (N node = root; node != null; node = node.getLeft()) {
+			if (node.getColor() == BalancedNode.BLACK)
+				black_height++;
+		}
+		return black_height;
+	}
+
+	public N getRoot() {
+		return root;
+	}
+
+	public void setRoot(N root) {
+		this.root = root;
+	}
+}
@@ -0,0 +1,404 @@
+package application;
+
+import java.util.Arrays;
+
+/*
+ * A red-black tree model without any GUI data. Keys and links live in parallel int arrays addressed by node index, and the
+ * color is packed into the top bit of the parent slot, so a key costs 16 bytes instead of a full Node object. Removed slots
+ * are recycled through a free list. A Tree can display this model with Tree.load(CompactTree), which creates the Node
+ * objects only at that point, one per key with all its GUI state; that is meant for trees small enough to be drawn, and
+ * large trees stay in this model and are only shown in part or not at all.
+ */
+public class CompactTree {
+	public static final int NIL = -1; //index of a missing node
+
+	private static final int RED_BIT = 0x80000000; //color bit in parent_color
+	private static final int PARENT_MASK = 0x7fffffff; //parent index bits in parent_color
+	private static final int NO_PARENT = PARENT_MASK; //parent value of the root
+
+	private int[] keys; //the value of each node
+	private int[] left; //the left child of each node (the next free slot for removed nodes)
+	private int[] right; //the right child of each node
+	private int[] parent_color; //the parent of each node with the color in the top bit
+	private int root = NIL;
+	private int size = 0; //number of keys in the tree
+	private int used = 0; //number of slots ever handed out
+	private int free_head = NIL; //first removed slot that can be reused
+
+	public CompactTree() {
+		this(16);
+	}
+
+	public CompactTree(int initial_capacity) {
+		int capacity = Math.max(initial_capacity, 1);
+		keys = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent_color = new int[capacity];
+	}
+
+	/* Insert "value". It returns "false" if the value already exists */
+	public boolean insert(int value) {
+		int parent = NIL;
+		int current = root;
+		boolean is_left = false;
+
+		while (current != NIL) {
+			int key = keys[current];
+			if (value == key)
+				return false;
+			parent = current;
+			is_left = value < key;
+			current = is_left ? left[current] : right[current];
+		}
+
+		int node = allocate(value);
+		setParent(node, parent);
+		if (parent == NIL)
+			root = node;
+		else if (is_left)
+			left[parent] = node;
+		else
+			right[parent] = node;
+
+		insertFixup(node);
+		size++;
+		return true;
+	}
+
+	/* Check whether "value" is stored in the tree */
+	public boolean contains(int value) {
+		return find(value) != NIL;
+	}
+
+	/* Return the index of the node holding "value", or NIL */
+	public int find(int value) {
+		int current = root;
+		while (current != NIL) {
+			int key = keys[current];
+			if (value == key)
+				return current;
+			current = value < key ? left[current] : right[current];
+		}
+		return NIL;
+	}
+
+	/* Return the index of the node with the largest value <= "value", or NIL */
+	public int floor(int value) {
+		int current = root;
+		int result = NIL;
+		while (current != NIL) {
+			int key = keys[current];
+			if (value == key)
+				return current;
+			if (value < key) {
+				current = left[current];
+			} else {
+				result = current;
+				current = right[current];
+			}
+		}
+		return result;
+	}
+
+	/* Return the index of the node with the smallest value >= "value", or NIL */
+	public int ceiling(int value) {
+		int current = root;
+		int result = NIL;
+		while (current != NIL) {
+			int key = keys[current];
+			if (value == key)
+				return current;
+			if (value > key) {
+				current = right[current];
+			} else {
+				result = current;
+				current = left[current];
+			}
+		}
+		return result;
+	}
+
+	/* Remove "value" from the tree. It returns "false" if the value does not exist */
+	public boolean delete(int value) {
+		int target = find(value);
+		if (target == NIL)
+			return false;
+
+		int removed = target; //the node that actually leaves its position
+		boolean removed_red = isRed(removed);
+		int child;
+		int child_parent; //tracked separately because child may be NIL
+		boolean child_is_left;
+
+		if (left[target] == NIL || right[target] == NIL) {
+			child = (left[target] == NIL) ? right[target] : left[target];
+			child_parent = parentOf(target);
+			child_is_left = child_parent != NIL && left[child_parent] == target;
+			replaceChild(target, child);
+		} else {
+			removed = right[target];
+			while (left[removed] != NIL)
+				removed = left[removed];
+			removed_red = isRed(removed);
+			child = right[removed];
+
+			if (parentOf(removed) == target) {
+				child_parent = removed;
+				child_is_left = false;
+			} else {
+				child_parent = parentOf(removed);
+				child_is_left = true;
+				replaceChild(removed, child);
+				right[removed] = right[target];
+				setParent(right[removed], removed);
+			}
+
+			replaceChild(target, removed);
+			left[removed] = left[target];
+			setParent(left[removed], removed);
+			setRed(removed, isRed(target));
+		}
+
+		release(target);
+		size--;
+
+		if (!removed_red)
+			deleteFixup(child, child_parent, child_is_left);
+		return true;
+	}
+
+	/* Remove all keys but keep the allocated arrays */
+	public void clear() {
+		root = NIL;
+		size = 0;
+		used = 0;
+		free_head = NIL;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	public int keyAt(int node) {
+		return keys[node];
+	}
+
+	public int leftOf(int node) {
+		return left[node];
+	}
+
+	public int rightOf(int node) {
+		return right[node];
+	}
+
+	public int parentOf(int node) {
+		int parent = parent_color[node] & PARENT_MASK;
+		return parent == NO_PARENT ? NIL : parent;
+	}
+
+	public boolean isRed(int node) {
+		return node != NIL && (parent_color[node] & RED_BIT) != 0;
+	}
+
+	public int colorOf(int node) {
+		return isRed(node) ? TreeNode.RED : TreeNode.BLACK;
+	}
+
+	private void insertFixup(int node) {
+		while (node != root && isRed(parentOf(node))) {
+			int parent = parentOf(node);
+			int grand_parent = parentOf(parent); //a red parent is never the root
+
+			if (parent == left[grand_parent]) {
+				int uncle = right[grand_parent];
+				if (isRed(uncle)) {
+					setRed(parent, false);
+					setRed(uncle, false);
+					setRed(grand_parent, true);
+					node = grand_parent;
+				} else {
+					if (node == right[parent]) {
+						node = parent;
+						rotateLeft(node);
+						parent = parentOf(node);
+					}
+					setRed(parent, false);
+					setRed(grand_parent, true);
+					rotateRight(grand_parent);
+				}
+			} else {
+				int uncle = left[grand_parent];
+				if (isRed(uncle)) {
+					setRed(parent, false);
+					setRed(uncle, false);
+					setRed(grand_parent, true);
+					node = grand_parent;
+				} else {
+					if (node == left[parent]) {
+						node = parent;
+						rotateRight(node);
+						parent = parentOf(node);
+					}
+					setRed(parent, false);
+					setRed(grand_parent, true);
+					rotateLeft(grand_parent);
+				}
+			}
+		}
+
+		setRed(root, false);
+	}
+
+	private void deleteFixup(int node, int parent, boolean is_left) {
+		while (node != root && !isRed(node)) {
+			if (is_left) {
+				int sibling = right[parent];
+				if (isRed(sibling)) {
+					setRed(sibling, false);
+					setRed(parent, true);
+					rotateLeft(parent);
+					sibling = right[parent];
+				}
+
+				if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+					setRed(sibling, true);
+					node = parent;
+					parent = parentOf(node);
+					is_left = parent != NIL && left[parent] == node;
+				} else {
+					if (!isRed(right[sibling])) {
+						setRed(left[sibling], false);
+						setRed(sibling, true);
+						rotateRight(sibling);
+						sibling = right[parent];
+					}
+					setRed(sibling, isRed(parent));
+					setRed(parent, false);
+					setRed(right[sibling], false);
+					rotateLeft(parent);
+					node = root;
+				}
+			} else {
+				int sibling = left[parent];
+				if (isRed(sibling)) {
+					setRed(sibling, false);
+					setRed(parent, true);
+					rotateRight(parent);
+					sibling = left[parent];
+				}
+
+				if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+					setRed(sibling, true);
+					node = parent;
+					parent = parentOf(node);
+					is_left = parent != NIL && left[parent] == node;
+				} else {
+					if (!isRed(left[sibling])) {
+						setRed(right[sibling], false);
+						setRed(sibling, true);
+						rotateLeft(sibling);
+						sibling = left[parent];
+					}
+					setRed(sibling, isRed(parent));
+					setRed(parent, false);
+					setRed(left[sibling], false);
+					rotateRight(parent);
+					node = root;
+				}
+			}
+		}
+
+		if (node != NIL)
+			setRed(node, false);
+	}
+
+	private void rotateLeft(int node) {
+		int pivot = right[node];
+
+		right[node] = left[pivot];
+		if (left[pivot] != NIL)
+			setParent(left[pivot], node);
+
+		replaceChild(node, pivot);
+		left[pivot] = node;
+		setParent(node, pivot);
+	}
+
+	private void rotateRight(int node) {
+		int pivot = left[node];
+
+		left[node] = right[pivot];
+		if (right[pivot] != NIL)
+			setParent(right[pivot], node);
+
+		replaceChild(node, pivot);
+		right[pivot] = node;
+		setParent(node, pivot);
+	}
+
+	/* Let "replacement" take the place of "node" under node's parent (or as the root) */
+	private void replaceChild(int node, int replacement) {
+		int parent = parentOf(node);
+
+		if (replacement != NIL)
+			setParent(replacement, parent);
+
+		if (parent == NIL)
+			root = replacement;
+		else if (left[parent] == node)
+			left[parent] = replacement;
+		else
+			right[parent] = replacement;
+	}
+
+	private void setParent(int node, int parent) {
+		parent_color[node] = (parent_color[node] & RED_BIT) | (parent == NIL ? NO_PARENT : parent);
+	}
+
+	private void setRed(int node, boolean red) {
+		if (red)
+			parent_color[node] |= RED_BIT;
+		else
+			parent_color[node] &= ~RED_BIT;
+	}
+
+	/* Hand out a slot for a new red leaf holding "value" */
+	private int allocate(int value) {
+		int node;
+		if (free_head != NIL) {
+			node = free_head;
+			free_head = left[node];
+		} else {
+			if (used == keys.length)
+				grow();
+			node = used++;
+		}
+
+		keys[node] = value;
+		left[node] = NIL;
+		right[node] = NIL;
+		parent_color[node] = RED_BIT | NO_PARENT;
+		return node;
+	}
+
+	/* Put the slot of a removed node on the free list */
+	private void release(int node) {
+		left[node] = free_head;
+		right[node] = NIL;
+		parent_color[node] = NO_PARENT;
+		free_head = node;
+	}
+
+	private void grow() {
+		int capacity = keys.length + (keys.length >> 1) + 1;
+		keys = Arrays.copyOf(keys, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent_color = Arrays.copyOf(parent_color, capacity);
+	}
+}
@@ -0,0 +1,21 @@
+package application;
+
+/*
+ * The red-black tree of int values for use without JavaFX, e.g. from a plain main(), a library call or TreeConsole. It only
+ * supplies a plain node type to RedBlackTree, so everything of the core is available: lookups, bulk loading, files and the
+ * log, aggregates with rank and select, streams, snapshots, set operations and verify().
+ */
+public class IntTree extends RedBlackTree<IntTree.IntNode> {
+
+	/* A node holding one value, without any drawing data */
+	public static final class IntNode extends TreeNode<IntNode> {
+		public IntNode(int value) {
+			super(value);
+		}
+	}
+
+	@Override
+	protected IntNode createNode(int value) {
+		return new IntNode(value);
+	}
+}
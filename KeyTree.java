@@ -0,0 +1,163 @@
+package application;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * A red-black tree of arbitrary keys ordered by a Comparator, for keys that are not a single number, e.g. composite keys
+ * built with Comparator.comparing(...).thenComparing(...). Linking, unlinking and rebalancing are the ones of
+ * BalancedTree, shared with RedBlackTree and LongTree; only the searches go through the comparator. Use RedBlackTree or
+ * LongTree for int and long keys, which are compared without any call or boxing.
+ */
+public class KeyTree<K> extends BalancedTree<KeyTree.Entry<K>> {
+
+	/* A node holding one key */
+	public static final class Entry<K> extends BalancedNode<Entry<K>> {
+		private final K key;
+
+		Entry(K key) {
+			this.key = key;
+		}
+
+		public K getKey() {
+			return key;
+		}
+	}
+
+	private final Comparator<? super K> comparator;
+
+	public KeyTree(Comparator<? super K> comparator) {
+		if (comparator == null)
+			throw new IllegalArgumentException("comparator must not be null");
+		this.comparator = comparator;
+	}
+
+	/* Create a tree ordered by the natural order of the keys */
+	public static <K extends Comparable<? super K>> KeyTree<K> natural() {
+		return new KeyTree<K>(Comparator.<K>naturalOrder());
+	}
+
+	/* Insert "key"; it returns "false" if an equal key (comparing as 0) already exists */
+	public boolean insert(K key) {
+		int comparisons = 0;
+		Entry<K> parent = null; //the node the new node will hang from, null for an empty tree
+		boolean is_left = false;
+		Entry<K> current_node = root;
+
+		while (current_node != null) {
+			comparisons++;
+			int order = comparator.compare(key, current_node.getKey());
+			if (order == 0) {
+				if (TreeMetrics.enabled)
+					TreeMetrics.comparisons_per_descent.record(comparisons);
+				return false;
+			}
+			parent = current_node;
+			is_left = order < 0;
+			current_node = is_left ? current_node.getLeft() : current_node.getRight();
+		}
+
+		attachLeaf(new Entry<K>(key), parent, is_left);
+		if (TreeMetrics.enabled)
+			recordInsert(comparisons);
+		return true;
+	}
+
+	/* Remove the key equal to "key"; it returns "false" if there is none */
+	public boolean delete(K key) {
+		int comparisons = 0;
+		Entry<K> target_node = root;
+		while (target_node != null) {
+			comparisons++;
+			int order = comparator.compare(key, target_node.getKey());
+			if (order == 0)
+				break;
+			target_node = (order < 0) ? target_node.getLeft() : target_node.getRight();
+		}
+		if (target_node == null) {
+			if (TreeMetrics.enabled)
+				TreeMetrics.comparisons_per_descent.record(comparisons);
+			return false;
+		}
+
+		unlink(target_node);
+		if (TreeMetrics.enabled)
+			recordDelete(comparisons);
+		return true;
+	}
+
+	/* Return the node holding a key equal to "key", or null if there is none */
+	public Entry<K> find(K key) {
+		Entry<K> current_node = root;
+		while (current_node != null) {
+			int order = comparator.compare(key, current_node.getKey());
+			if (order == 0)
+				return current_node;
+			current_node = (order < 0) ? current_node.getLeft() : current_node.getRight();
+		}
+		return null;
+	}
+
+	public boolean contains(K key) {
+		return find(key) != null;
+	}
+
+	/* Return the node with the largest key <= "key", or null if every key in the tree is bigger */
+	public Entry<K> floor(K key) {
+		Entry<K> current_node = root;
+		Entry<K> result = null;
+		while (current_node != null) {
+			int order = comparator.compare(key, current_node.getKey());
+			if (order == 0)
+				return current_node;
+			if (order < 0) {
+				current_node = current_node.getLeft();
+			} else {
+				result = current_node; //candidate, but a closer one may still be in the right sub-tree
+				current_node = current_node.getRight();
+			}
+		}
+		return result;
+	}
+
+	/* Return the node with the smallest key >= "key", or null if every key in the tree is smaller */
+	public Entry<K> ceiling(K key) {
+		Entry<K> current_node = root;
+		Entry<K> result = null;
+		while (current_node != null) {
+			int order = comparator.compare(key, current_node.getKey());
+			if (order == 0)
+				return current_node;
+			if (order > 0) {
+				current_node = current_node.getRight();
+			} else {
+				result = current_node; //candidate, but a closer one may still be in the left sub-tree
+				current_node = current_node.getLeft();
+			}
+		}
+		return result;
+	}
+
+	public Comparator<? super K> getComparator() {
+		return comparator;
+	}
+
+	/* Return the keys in ascending order */
+	public List<K> toList() {
+		List<K> keys = new ArrayList<K>(size);
+		ArrayDeque<Entry<K>> stack = new ArrayDeque<Entry<K>>();
+		Entry<K> current_node = root;
+		while (current_node != null || !stack.isEmpty()) {
+			while (current_node != null) {
+				stack.push(current_node);
+				current_node = current_node.getLeft();
+			}
+			current_node = stack.pop();
+			keys.add(current_node.getKey());
+			current_node = current_node.getRight();
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,109 @@
+package application;
+
+import java.util.ArrayDeque;
+
+/*
+ * One finished layout of a whole Tree: the TidyLayout placement of every node, computed for the tree version it was
+ * captured at. The snapshot is not changed after construction, so it can be computed on a background thread and handed to
+ * the JavaFX thread as it is; the JavaFX thread compares its version with the current tree version and drops it if the
+ * tree moved on in the meantime. Otherwise the tree takes over its TidyLayout, with the node at index i in slot i, and
+ * keeps it up to date with incremental placements from then on.
+ *
+ * The tree itself is not thread-safe, so the layout is done in two steps:
+ *   - capture() walks the tree on the JavaFX thread and copies its shape into child index arrays (a Structure)
+ *   - the constructor lays out the Structure on any thread; it only reads the arrays and never touches a Node
+ */
+public final class LayoutSnapshot {
+
+	/* The shape of the tree at one version: nodes in post-order and the indexes of their children, -1 for none */
+	public static final class Structure {
+		private final long version;
+		private final Node[] nodes;
+		private final int[] left;
+		private final int[] right;
+
+		private Structure(long version, Node[] nodes, int[] left, int[] right) {
+			this.version = version;
+			this.nodes = nodes;
+			this.left = left;
+			this.right = right;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public int size() {
+			return nodes.length;
+		}
+	}
+
+	private final long version;
+	private final Node[] nodes; //shared with the Structure, which never changes either
+	private final TidyLayout layout; //the placement of nodes[i] in slot i
+
+	/*
+	 * Copy the shape of the tree rooted at "root", which holds "size" nodes. The walk visits root, right, left, which
+	 * backwards is the post-order TidyLayout expects, and numbers the nodes through Node.setIdx() on the way.
+	 */
+	public static Structure capture(Node root, int size, long version) {
+		Node[] nodes = new Node[size];
+		int[] left = new int[size];
+		int[] right = new int[size];
+
+		int count = 0;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		if (root != null)
+			stack.push(root);
+		while (!stack.isEmpty()) {
+			Node current_node = stack.pop();
+			count++;
+			nodes[size - count] = current_node;
+			current_node.setIdx(size - count);
+			if (current_node.getLeft() != null)
+				stack.push(current_node.getLeft());
+			if (current_node.getRight() != null)
+				stack.push(current_node.getRight());
+		}
+		if (count != size)
+			throw new IllegalStateException("The tree holds " + count + " nodes, but its size is " + size);
+
+		for (int i = 0; i < size; i++) {
+			left[i] = nodes[i].getLeft() != null ? nodes[i].getLeft().getIdx() : -1;
+			right[i] = nodes[i].getRight() != null ? nodes[i].getRight().getIdx() : -1;
+		}
+		return new Structure(version, nodes, left, right);
+	}
+
+	/*
+	 * Lay out "structure" with "layout", which becomes part of the snapshot. Its earlier placements are overwritten, and it
+	 * must not be used by another thread until the snapshot is handed over.
+	 */
+	public LayoutSnapshot(Structure structure, TidyLayout layout) {
+		int count = structure.size();
+		layout.reset(count);
+		for (int i = 0; i < count; i++)
+			layout.setChildren(i, structure.left[i], structure.right[i]);
+		layout.layout();
+
+		version = structure.version;
+		nodes = structure.nodes;
+		this.layout = layout;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return nodes.length;
+	}
+
+	public Node getNode(int index) {
+		return nodes[index];
+	}
+
+	public TidyLayout getLayout() {
+		return layout;
+	}
+}
@@ -0,0 +1,135 @@
+package application;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * A red-black tree of long keys, e.g. 64 bit IDs or timestamps. Every descent compares the keys as primitives, so nothing
+ * is boxed and no compareTo() is called; linking, unlinking and rebalancing are the ones of BalancedTree, shared with
+ * RedBlackTree and KeyTree.
+ */
+public class LongTree extends BalancedTree<LongTree.Entry> {
+
+	/* A node holding one key */
+	public static final class Entry extends BalancedNode<Entry> {
+		private final long key;
+
+		Entry(long key) {
+			this.key = key;
+		}
+
+		public long getKey() {
+			return key;
+		}
+	}
+
+	/* Insert "key"; it returns "false" if the key already exists */
+	public boolean insert(long key) {
+		int comparisons = 0;
+		Entry parent = null; //the node the new node will hang from, null for an empty tree
+		boolean is_left = false;
+		Entry current_node = root;
+
+		while (current_node != null) {
+			comparisons++;
+			long current_key = current_node.getKey();
+			if (key == current_key) {
+				if (TreeMetrics.enabled)
+					TreeMetrics.comparisons_per_descent.record(comparisons);
+				return false;
+			}
+			parent = current_node;
+			is_left = key < current_key;
+			current_node = is_left ? current_node.getLeft() : current_node.getRight();
+		}
+
+		attachLeaf(new Entry(key), parent, is_left);
+		if (TreeMetrics.enabled)
+			recordInsert(comparisons);
+		return true;
+	}
+
+	/* Remove "key"; it returns "false" if the key does not exist */
+	public boolean delete(long key) {
+		int comparisons = 1;
+		Entry target_node = root;
+		while (target_node != null && target_node.getKey() != key) {
+			comparisons++;
+			target_node = (key < target_node.getKey()) ? target_node.getLeft() : target_node.getRight();
+		}
+		if (target_node == null) {
+			if (TreeMetrics.enabled)
+				TreeMetrics.comparisons_per_descent.record(comparisons - 1);
+			return false;
+		}
+
+		unlink(target_node);
+		if (TreeMetrics.enabled)
+			recordDelete(comparisons);
+		return true;
+	}
+
+	/* Return the node holding "key", or null if the key is not in the tree */
+	public Entry find(long key) {
+		Entry current_node = root;
+		while (current_node != null && current_node.getKey() != key)
+			current_node = (key < current_node.getKey()) ? current_node.getLeft() : current_node.getRight();
+		return current_node;
+	}
+
+	public boolean contains(long key) {
+		return find(key) != null;
+	}
+
+	/* Return the node with the largest key <= "key", or null if every key in the tree is bigger */
+	public Entry floor(long key) {
+		Entry current_node = root;
+		Entry result = null;
+		while (current_node != null) {
+			if (key == current_node.getKey())
+				return current_node;
+			if (key < current_node.getKey()) {
+				current_node = current_node.getLeft();
+			} else {
+				result = current_node; //candidate, but a closer one may still be in the right sub-tree
+				current_node = current_node.getRight();
+			}
+		}
+		return result;
+	}
+
+	/* Return the node with the smallest key >= "key", or null if every key in the tree is smaller */
+	public Entry ceiling(long key) {
+		Entry current_node = root;
+		Entry result = null;
+		while (current_node != null) {
+			if (key == current_node.getKey())
+				return current_node;
+			if (key > current_node.getKey()) {
+				current_node = current_node.getRight();
+			} else {
+				result = current_node; //candidate, but a closer one may still be in the left sub-tree
+				current_node = current_node.getLeft();
+			}
+		}
+		return result;
+	}
+
+	/* Return the keys in ascending order */
+	public long[] toArray() {
+		long[] keys = new long[size];
+		int count = 0;
+		ArrayDeque<Entry> stack = new ArrayDeque<Entry>();
+		Entry current_node = root;
+		while (current_node != null || !stack.isEmpty()) {
+			while (current_node != null) {
+				stack.push(current_node);
+				current_node = current_node.getLeft();
+			}
+			current_node = stack.pop();
+			keys[count++] = current_node.getKey();
+			current_node = current_node.getRight();
+		}
+		return (count == keys.length) ? keys : Arrays.copyOf(keys, count);
+	}
+}
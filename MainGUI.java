@@ -1,25 +1,36 @@
 package application;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.Arrays;
 
 import javafx.application.Application;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.stage.Stage;
-import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.ArcType;
@@ -29,6 +40,13 @@ public class MainGUI extends Application {
 	private int canvas_width = 640; //canvas width
 	private int canvas_height = 480; //canvas height
 	private Button btn_add = new Button("add"); //button for adding a node
+	private Button btn_reset_view = new Button("reset view"); //button for going back to the original zoom and position
+	private Button btn_save = new Button("save"); //button for writing the tree to snapshot_path
+	private Button btn_load = new Button("load"); //button for replacing the tree with the one in snapshot_path
+	private Button btn_metrics = new Button("metrics"); //button for switching the metrics and their overlay on and off
+	private Path snapshot_path = Paths.get("tree.rbt"); //the file used by the save and load buttons
+	private Path log_path = Paths.get("tree.log"); //the log of the changes made after the last save
+	private TreeLog log; //the open log of log_path
 	private TextField tf = new TextField(); //textfield to enter node value
 	private Canvas canvas = new Canvas(canvas_width, canvas_height);
 	private GraphicsContext gc = canvas.getGraphicsContext2D(); //define the canvas brush
@@ -51,7 +69,8 @@ public class MainGUI extends Application {
 			
 
 			/*
-			 * Make sure only numbers can be entered and no more than two digits
+			 * Make sure only numbers and separators can be entered, and no more than two digits per number.
+			 * Several numbers separated by commas or spaces (typed or pasted) are inserted as one batch
 			 */
 			tf.addEventHandler(KeyEvent.KEY_TYPED, new EventHandler<KeyEvent>() {
 				public void handle(KeyEvent t) {
@@ -59,11 +78,17 @@ public class MainGUI extends Application {
 						char ar[] = t.getCharacter().toCharArray();
 						char ch = ar[t.getCharacter().toCharArray().length - 1];
 
+						if (ch == ',' || ch == ' ') {
+							return;
+						}
+
 						if (!(ch >= '0' && ch <= '9')) {
 							t.consume();
 						}
 
-						if (tf.getText().length() == 2) {
+						String text = tf.getText();
+						int last_separator = Math.max(text.lastIndexOf(','), text.lastIndexOf(' '));
+						if (text.length() - last_separator - 1 >= 2) {
 							t.consume();
 						}
 
@@ -100,6 +125,72 @@ public class MainGUI extends Application {
 			});
 			
 			
+			/* Go back to the original zoom and position */
+			btn_reset_view.setOnAction(new EventHandler<ActionEvent>() {
+
+				@Override
+				public void handle(ActionEvent event) {
+					tree.resetView();
+				}
+
+			});
+			
+			/* Save the tree to the snapshot file, and load it back */
+			btn_save.setOnAction(new EventHandler<ActionEvent>() {
+
+				@Override
+				public void handle(ActionEvent event) {
+					try {
+						//The log is only cut off once the snapshot is completely on the disk and has replaced the old one
+						TreeFile.write(tree, snapshot_path);
+					} catch (IOException e) {
+						showError("The tree could not be saved to " + snapshot_path, e);
+						return;
+					}
+					try {
+						if (log != null)
+							log.reset(); //the snapshot contains every logged change now
+					} catch (IOException e) {
+						showError("The tree was saved, but the change log " + log_path + " could not be cleared", e);
+					}
+				}
+
+			});
+			
+			btn_load.setOnAction(new EventHandler<ActionEvent>() {
+
+				@Override
+				public void handle(ActionEvent event) {
+					restoreTree();
+				}
+
+			});
+			
+			/* Switch the metrics on and off; they are also available through JMX */
+			btn_metrics.setOnAction(new EventHandler<ActionEvent>() {
+
+				@Override
+				public void handle(ActionEvent event) {
+					boolean on = !tree.isMetricsOverlay();
+					TreeMetrics.get().setEnabled(on);
+					tree.setMetricsOverlay(on);
+				}
+
+			});
+			TreeMetrics.watch(tree);
+			TreeMetrics.registerMBean();
+			
+			/* Lay out on a background thread, so that the JavaFX thread only draws finished layouts */
+			tree.setBackgroundLayout(true);
+			
+			/* Zoom around the mouse position with the mouse wheel */
+			canvas.addEventHandler(ScrollEvent.SCROLL, new EventHandler<ScrollEvent>() {
+		           @Override
+		           public void handle(ScrollEvent e) {
+		              	tree.zoom(Math.pow(1.002, e.getDeltaY()), e.getX(), e.getY());
+		           }
+		       });
+			
 			canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
 		           @Override
 		           public void handle(MouseEvent e) {
@@ -113,7 +204,6 @@ public class MainGUI extends Application {
 		              	if(e.getButton() == MouseButton.SECONDARY )
 		              	{
 		              		tree.setSelect_node_value(-1);
-		        			clearCanvas();
 		        			tree.showTree(false);
 		              	}
 		           }
@@ -133,14 +223,32 @@ public class MainGUI extends Application {
 		           }
 		       });
 			
-			Group root = new Group();
-			hbox.getChildren().addAll(tf, btn_add);
-			vbox.getChildren().addAll(hbox, canvas);
-			root.getChildren().add(vbox);
-			primaryStage.setScene(new Scene(root));
-			primaryStage.setResizable(false);
+			/* The canvas fills the space below the input row and follows the window size */
+			Pane canvas_pane = new Pane();
+			canvas_pane.getChildren().add(canvas);
+			canvas.widthProperty().bind(canvas_pane.widthProperty());
+			canvas.heightProperty().bind(canvas_pane.heightProperty());
+			ChangeListener<Number> resize_listener = new ChangeListener<Number>() {
+				@Override
+				public void changed(ObservableValue<? extends Number> observable, Number old_value, Number new_value) {
+					tree.setViewportSize(canvas.getWidth(), canvas.getHeight());
+				}
+			};
+			canvas.widthProperty().addListener(resize_listener);
+			canvas.heightProperty().addListener(resize_listener);
+			VBox.setVgrow(canvas_pane, Priority.ALWAYS);
+			
+			hbox.getChildren().addAll(tf, btn_add, btn_reset_view, btn_save, btn_load, btn_metrics);
+			vbox.getChildren().addAll(hbox, canvas_pane);
+			primaryStage.setScene(new Scene(vbox, canvas_width, canvas_height + 60));
+			primaryStage.setMinWidth(320);
+			primaryStage.setMinHeight(240);
+			primaryStage.setResizable(true);
 			primaryStage.show();
 			
+			/* Continue with the tree of the last session */
+			restoreTree();
+			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -150,40 +258,187 @@ public class MainGUI extends Application {
 	private void createNode()
 	{
 		
-		//Get the value from TextField
-		int num_value = Integer.parseInt(tf.getText());
+		//Get the values from TextField
+		int[] values = parseValues(tf.getText());
 		
 		//Clear the TextField
 		tf.clear();
 		
+		if (values.length == 0)
+			return;
+		if (values.length > 1)
+		{
+			createNodes(values);
+			return;
+		}
+		int num_value = values[0];
+		
 		//Create the node object by the value
 		Node node = new Node(num_value, this.tree, this.canvas, this.gc);
 		
 		//Insert the node to the tree
-		boolean insertion_occur = tree.insertNode(node);
+		boolean insertion_occur;
+		try
+		{
+			insertion_occur = tree.insertNode(node);
+		}
+		catch (UncheckedIOException e)
+		{
+			logFailed(e);
+			return;
+		}
 		tree.setNew_node(node);
 		
 		if(insertion_occur)
 		{
+			commitLog();
+			
 			//Consider the new node as updated
 			tree.setSelect_node_value(num_value);
-			
-			// Clear the canvas for re-draw later
-			clearCanvas();
 
-			// Draw the tree on canvas
-			tree.showTree(true);
+			// Draw the changed parts of the tree on canvas (on the next frame, together with any other pending change)
+			tree.showTreeLater();
 		}
 		
 		
 	}
 	
+	/*
+	 * Rebuild the tree from the last saved snapshot and the changes logged after it. If that fails, or the result breaks a
+	 * red-black rule, the tree may hold only part of the saved data, and changes to it must neither go unlogged nor be saved
+	 * over the snapshot, so editing stays off until a restore succeeds.
+	 */
+	private void restoreTree()
+	{
+		setEditable(false);
+		tree.setLog(null); //the replayed changes are in the log already
+		try
+		{
+			if (log == null)
+				log = new TreeLog(log_path);
+			
+			if (Files.exists(snapshot_path))
+				tree.load(TreeFile.open(snapshot_path));
+			else
+				tree.bulkLoad(new int[0]); //start from an empty tree
+			log.replay(tree);
+		}
+		catch (IOException e)
+		{
+			tree.showTreeLater();
+			showError("The tree could not be restored from " + snapshot_path + " and " + log_path
+					+ ". Editing is disabled until a load succeeds.", e);
+			return;
+		}
+		TreeVerifier.Report report = tree.verify();
+		if (!report.isValid())
+		{
+			tree.showTreeLater();
+			showError("The tree restored from " + snapshot_path + " and " + log_path
+					+ " is broken. Editing is disabled until a load succeeds.", report.toString());
+			return;
+		}
+		tree.setLog(log);
+		setEditable(true);
+		
+		tree.showTreeLater();
+	}
+	
+	//Switch the controls that change the tree or the snapshot on and off
+	private void setEditable(boolean editable)
+	{
+		tf.setDisable(!editable);
+		btn_add.setDisable(!editable);
+		btn_save.setDisable(!editable);
+	}
+	
+	//Tell the user about a failed file operation
+	private void showError(String message, Exception e)
+	{
+		e.printStackTrace();
+		showError(message, String.valueOf(e.getMessage()));
+	}
 	
+	//Tell the user about a failure, with "details" below the message
+	private void showError(String message, String details)
+	{
+		Alert alert = new Alert(Alert.AlertType.ERROR);
+		alert.setTitle("Black and Red Tree");
+		alert.setHeaderText(message);
+		alert.setContentText(details);
+		alert.show();
+	}
 	
-	//Clear the canvas
-	private void clearCanvas()
+	//Write the changes logged since the last commit as one group
+	private void commitLog()
 	{
-		gc.clearRect(0, 0, canvas_width, canvas_height);
+		if (log == null)
+			return;
+		try
+		{
+			log.commit();
+		}
+		catch (IOException e)
+		{
+			setEditable(false); //the change is in the tree, but not in the log
+			showError("The change could not be written to " + log_path + ". Editing is disabled until a load succeeds.", e);
+		}
+	}
+	
+	//Stop editing after the log refused a change; the tree did not take that change
+	private void logFailed(UncheckedIOException e)
+	{
+		setEditable(false);
+		showError("The change could not be written to " + log_path + ". Editing is disabled until a load succeeds.", e.getCause());
+	}
+	
+	@Override
+	public void stop() throws Exception {
+		if (log != null)
+			log.close();
+	}
+	
+	//Insert a batch of values, then lay out and draw the tree once
+	private void createNodes(int[] values)
+	{
+		int inserted;
+		try
+		{
+			inserted = tree.insertAll(values);
+		}
+		catch (UncheckedIOException e)
+		{
+			logFailed(e); //the values before the failing one are in the tree
+			tree.showTreeLater();
+			return;
+		}
+		if (inserted > 0)
+		{
+			commitLog();
+			tree.setSelect_node_value(values[values.length - 1]);
+			tree.showTreeLater();
+		}
+	}
+	
+	//Parse the numbers separated by commas or white space, skipping anything that is not a number of one or two digits.
+	//Pasted text bypasses the KEY_TYPED filter, so the same 0-99 rule is applied here; it also keeps values clear of the
+	//-1 that means "no selection"
+	private int[] parseValues(String text)
+	{
+		String[] tokens = text.trim().split("[,\\s]+");
+		int[] values = new int[tokens.length];
+		int count = 0;
+		
+		for (String token : tokens)
+		{
+			if (token.matches("[0-9]{1,2}"))
+			{
+				values[count] = Integer.parseInt(token);
+				count++;
+			}
+		}
+		
+		return Arrays.copyOf(values, count);
 	}
 	
 	
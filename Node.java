@@ -8,19 +8,10 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
-public class Node {
-	private int value; //store the value of the node
-	private int color=1; //The color of the node (for red-black tree, it can be either BLACK or RED, as defined in the 
-	private Node left; //the left child of the node
-	private Node right; //the right child of the node
-	private Node parent; //the parent of the node
-	private boolean left_child_of_parent; //an indicator if this node is the left child of its parent
-										  //true - left
-	  									  //false - right
+/* A tree node with the data for drawing it on canvas; the red-black part (value, color, links) is in TreeNode */
+public class Node extends TreeNode<Node> {
 	
-	//Static members for color assignment. You just need to use them and do not need to add additional colors
-	public static final int BLACK = 0;
-	public static final int RED = 1;
+	//Static members for color assignment. BLACK and RED are inherited from TreeNode
 	public static final int GREEN = 2; //this green is just for the demo purpose in the original framework. It is not needed for the red-black tree
 
    
@@ -30,6 +21,66 @@ public class Node {
 	//It is really not necessary to write any additional code for this Node.java class. But just in case, if you want to 
 	//modify this class for your specific implementation, you can put your code here
 
+	//Bounding box of the whole sub-tree (top left corners plus the node size), relative to the position of this node so that
+	//it stays valid when an ancestor is dragged; used to skip invisible sub-trees and to find the node under the mouse
+	private double subtree_min_x;
+	private double subtree_min_y;
+	private double subtree_max_x;
+	private double subtree_max_y;
+	private int bounds_pass = -1; //the last bounds update of the tree that recomputed this box
+	private int layout_pass = -1; //the last incremental layout of the tree that placed this node again
+
+	//Recompute the sub-tree box from the offsets and the boxes of the children, which must be up to date
+	void updateSubtreeBounds() {
+		subtree_min_x = 0;
+		subtree_min_y = 0;
+		subtree_max_x = tree.getRadius();
+		subtree_max_y = tree.getRadius();
+		if (getLeft() != null)
+			includeSubtreeBounds(getLeft());
+		if (getRight() != null)
+			includeSubtreeBounds(getRight());
+	}
+
+	private void includeSubtreeBounds(Node child) {
+		subtree_min_x = Math.min(subtree_min_x, child.offset_x + child.subtree_min_x);
+		subtree_min_y = Math.min(subtree_min_y, child.offset_y + child.subtree_min_y);
+		subtree_max_x = Math.max(subtree_max_x, child.offset_x + child.subtree_max_x);
+		subtree_max_y = Math.max(subtree_max_y, child.offset_y + child.subtree_max_y);
+	}
+
+	//The sub-tree box on canvas, valid while the position of this node is resolved
+	public double getSubtree_min_x() {
+		return x + subtree_min_x;
+	}
+
+	public double getSubtree_min_y() {
+		return y + subtree_min_y;
+	}
+
+	public double getSubtree_max_x() {
+		return x + subtree_max_x;
+	}
+
+	public double getSubtree_max_y() {
+		return y + subtree_max_y;
+	}
+
+	public int getBounds_pass() {
+		return bounds_pass;
+	}
+
+	public void setBounds_pass(int bounds_pass) {
+		this.bounds_pass = bounds_pass;
+	}
+
+	public int getLayout_pass() {
+		return layout_pass;
+	}
+
+	public void setLayout_pass(int layout_pass) {
+		this.layout_pass = layout_pass;
+	}
 		
      
         
@@ -42,7 +93,11 @@ public class Node {
 	
 	
 	/* Read-only: data members below are just for GUI uses */
-	private Point2D position; //store the position of the node on canvas 
+	private double offset_x; //the position relative to the parent's position (to the canvas origin for the root)
+	private double offset_y;
+	private double x; //the position on canvas, resolved from the parent's position and the offset while the tree is drawn
+	private double y;
+	private boolean placed = false; //whether a layout gave this node a position yet
 	private Canvas canvas; //the canvas where a node is drawn
 	private GraphicsContext gc; //the brush used to draw on canvas
 	private boolean high_light; //an indicator if the current node is the newly inserted node
@@ -51,11 +106,8 @@ public class Node {
 							  //false - regular node
 	
 
-	private int idx; //record the access order from BFS
+	private int idx = -1; //slot of this node in the TidyLayout of its tree, -1 until it is laid out
 	private Tree tree; //the tree this node is from
-	private int layer_idx; //the position of the node in its layer
-
-	private int depth = 0; //the depth of current node in the tree
 	
 
 	public Node()
@@ -65,14 +117,13 @@ public class Node {
 	//Create a node with value assigned
 	public Node(int value)
 	{
-		this.value = value;
+		super(value);
 	}
 	
 	//Create a node with value and canvas and GraphicsContext assigned.
 	public Node(int value,  Tree tree, Canvas c, GraphicsContext gc)
 	{
-		this.position = new Point2D(0, 0);
-		this.value = value;
+		super(value);
 		this.canvas = c;
 		this.gc = gc;
 		this.tree = tree;
@@ -83,59 +134,51 @@ public class Node {
 	/* Draw this node onto canvas */
 	void showNode()
 	{
-		gc.setFill((color == RED)?Color.RED:Color.BLACK);
-		gc.fillOval(position.getX(), position.getY(), tree.getRadius(), tree.getRadius());
+		gc.setFill((getColor() == RED)?Color.RED:Color.BLACK);
+		gc.fillOval(x, y, tree.getRadius(), tree.getRadius());
 		
 		gc.setFill(Color.WHITE);
 		Font font = Font.font("serif", FontWeight.BOLD, tree.getRadius() / 1.5);
 		gc.setFont(font);
 		
-		if(value <= 9)
-			gc.fillText(Integer.toString(value), position.getX() + tree.getRadius() / 3, position.getY()  + tree.getRadius() / 1.4);
+		if(getValue() <= 9)
+			gc.fillText(Integer.toString(getValue()), x + tree.getRadius() / 3, y  + tree.getRadius() / 1.4);
 		else
-			gc.fillText(Integer.toString(value), position.getX() + tree.getRadius() / 5.5, position.getY()  + tree.getRadius() / 1.4);
+			gc.fillText(Integer.toString(getValue()), x + tree.getRadius() / 5.5, y  + tree.getRadius() / 1.4);
 	}
 
 	/*Similar to the function above, but this is for highlight purpose*/
 	void showNode(int select_value)
 	{
 
-		if (value == select_value) {
+		if (getValue() == select_value) {
 			gc.setFill(Color.GOLD);
-			gc.fillOval(position.getX() - 2, position.getY() - 2, tree.getRadius() + 4, tree.getRadius() + 4);
+			gc.fillOval(x - 2, y - 2, tree.getRadius() + 4, tree.getRadius() + 4);
 		}
 		
-		if(color == RED)
+		if(getColor() == RED)
 			gc.setFill(Color.RED);
-		else if(color == BLACK)
+		else if(getColor() == BLACK)
 			gc.setFill(Color.BLACK);
 		else
 			gc.setFill(Color.GREEN);
-		gc.fillOval(position.getX(), position.getY(), tree.getRadius(), tree.getRadius());
+		gc.fillOval(x, y, tree.getRadius(), tree.getRadius());
 		
 
 		gc.setFill(Color.WHITE);
 		Font font = Font.font("serif", FontWeight.BOLD, tree.getRadius() / 1.5);
 		gc.setFont(font);
 
-		if (value <= 9)
-			gc.fillText(Integer.toString(value), position.getX() + tree.getRadius() / 3,
-					position.getY() + tree.getRadius() / 1.4);
+		if (getValue() <= 9)
+			gc.fillText(Integer.toString(getValue()), x + tree.getRadius() / 3,
+					y + tree.getRadius() / 1.4);
 		else
-			gc.fillText(Integer.toString(value), position.getX() + tree.getRadius() / 5.5,
-					position.getY() + tree.getRadius() / 1.4);
+			gc.fillText(Integer.toString(getValue()), x + tree.getRadius() / 5.5,
+					y + tree.getRadius() / 1.4);
 	}
 	
 	
 	//Below are setters and getters
-	public int getValue() {
-		return value;
-	}
-	
-	public void setValue(int value) {
-		this.value = value;
-	}
-	
 	public Canvas getCanvas() {
 		return canvas;
 	}
@@ -144,80 +187,87 @@ public class Node {
 		this.canvas = canvas;
 	}
 	
+	/* The position on canvas as of the last resolvePosition() or move, or null before the first layout; allocates, unlike getX() and getY() */
 	public Point2D getPosition() {
-		return position;
-	}
-	
-	public void setPosition(Point2D position) {
-		this.position = position;
-	}
-	
-	public GraphicsContext getGc() {
-		return gc;
-	}
-	
-	public void setGc(GraphicsContext gc) {
-		this.gc = gc;
-	}
-	
-	public boolean isHigh_light() {
-		return high_light;
-	}
-	
-	public void setHigh_light(boolean new_node) {
-		this.high_light = high_light;
+		return placed ? new Point2D(x, y) : null;
 	}
-	
 
-	
-	public Node getLeft() {
-		return left;
+	public double getX() {
+		return x;
 	}
 
-	public void setLeft(Node left) {
-		this.left = left;
+	public double getY() {
+		return y;
 	}
 
-	public Node getRight() {
-		return right;
+	public boolean isPlaced() {
+		return placed;
 	}
 
-	public void setRight(Node right) {
-		this.right = right;
+	public double getOffset_x() {
+		return offset_x;
 	}
-	
 
-	public Node getParent() {
-		return parent;
+	public double getOffset_y() {
+		return offset_y;
 	}
 
-	public void setParent(Node parent) {
-		this.parent = parent;
+	/* Set the position relative to the parent; the position on canvas follows with the next resolvePosition() */
+	public void setOffset(double offset_x, double offset_y) {
+		this.offset_x = offset_x;
+		this.offset_y = offset_y;
 	}
 
-	public boolean isLeft_child_of_parent() {
-		return left_child_of_parent;
+	/* Compute the position on canvas from the offset and the parent's position, which must be resolved already */
+	void resolvePosition() {
+		if (getParent() != null) {
+			x = getParent().x + offset_x;
+			y = getParent().y + offset_y;
+		} else {
+			x = offset_x;
+			y = offset_y;
+		}
 	}
 
-	public void setLeft_child_of_parent(boolean left_child_of_parent) {
-		this.left_child_of_parent = left_child_of_parent;
+	/* Put this node at (x, y) on canvas, e.g. from a layout that also sets the offset; the old and the new place are redrawn */
+	void moveTo(double x, double y) {
+		if (tree != null)
+			tree.markNodeRegionDirty(this); //clear the old place
+		this.x = x;
+		this.y = y;
+		placed = true;
+		if (tree != null) {
+			tree.markNodeRegionDirty(this); //draw at the new place
+			tree.markBoundsDirty(this);
+		}
 	}
 
-	public int getDepth() {
-            int result=0;
-            Node parentNode=this.parent;
-            while (parentNode!=null){
-                parentNode=parentNode.parent;
-                result++;
-            }
-            return result;
+	/* Move this node and with it its whole sub-tree by (delta_x, delta_y); the descendants follow when they are resolved */
+	void moveBy(double delta_x, double delta_y) {
+		offset_x += delta_x;
+		offset_y += delta_y;
+		x += delta_x;
+		y += delta_y;
 	}
-
-	public void setDepth(int depth) {
-		this.depth = depth;
+	
+	public GraphicsContext getGc() {
+		return gc;
 	}
+	
+	public void setGc(GraphicsContext gc) {
+		this.gc = gc;
+	}
+	
+	public boolean isHigh_light() {
+		return high_light;
+	}
+	
+	public void setHigh_light(boolean new_node) {
+		this.high_light = new_node;
+	}
+	
 
-
+	
 	public int getIdx() {
 		return idx;
 	}
@@ -234,29 +284,12 @@ public class Node {
 		this.tree = tree;
 	}
 
-
-	public int getLayer_idx() {
-		return layer_idx;
-	}
-
-	public void setLayer_idx(int layer_idx) {
-		this.layer_idx = layer_idx;
-	}
-
 	 
-    public int getColor(){
-        return color;
-    }
-    
+    @Override
     public void setColor(int color){
-        this.color=color;
-    }
-    
-    public boolean isRed(){
-        if(color == RED)
-        	return true;
-        else
-        	return false;
+        if (tree != null && getColor() != color)
+        	tree.markNodeRegionDirty(this);
+        super.setColor(color);
     }
     
 	
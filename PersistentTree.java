@@ -0,0 +1,301 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * A persistent (immutable) red-black tree for concurrent readers. Nodes are never changed after creation: insert() and
+ * delete() copy only the O(log n) nodes on the path they touch, share everything else with the previous version, and
+ * publish the new root through an AtomicReference. A reader takes a Snapshot, which stays consistent and valid forever
+ * without any locking, no matter how many updates happen after it. Writers retry with compare-and-set, so several writer
+ * threads are safe too, although one writer thread is the intended use.
+ *
+ * The algorithms are the functional ones of Okasaki (insert) and Kahrs (delete), because path copying needs nodes without
+ * parent links; Tree and CompactTree keep parent links and are updated in place.
+ */
+public class PersistentTree {
+
+	/* An immutable tree node */
+	static final class PNode {
+		final int value;
+		final boolean red;
+		final PNode left;
+		final PNode right;
+
+		PNode(int value, boolean red, PNode left, PNode right) {
+			this.value = value;
+			this.red = red;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	/* An immutable version of the tree */
+	public static final class Snapshot {
+		private final PNode root;
+		private final int size;
+
+		Snapshot(PNode root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean contains(int value) {
+			PNode current = root;
+			while (current != null) {
+				if (value == current.value)
+					return true;
+				current = value < current.value ? current.left : current.right;
+			}
+			return false;
+		}
+
+		/* Return the largest value <= "value", or null if every value is bigger */
+		public Integer floor(int value) {
+			PNode current = root;
+			PNode result = null;
+			while (current != null) {
+				if (value == current.value)
+					return current.value;
+				if (value < current.value) {
+					current = current.left;
+				} else {
+					result = current;
+					current = current.right;
+				}
+			}
+			return result == null ? null : result.value;
+		}
+
+		/* Return the smallest value >= "value", or null if every value is smaller */
+		public Integer ceiling(int value) {
+			PNode current = root;
+			PNode result = null;
+			while (current != null) {
+				if (value == current.value)
+					return current.value;
+				if (value > current.value) {
+					current = current.right;
+				} else {
+					result = current;
+					current = current.left;
+				}
+			}
+			return result == null ? null : result.value;
+		}
+
+		/* Return all values in ascending order */
+		public int[] toArray() {
+			int[] values = new int[size];
+			PNode[] stack = new PNode[2 * (32 - Integer.numberOfLeadingZeros(size + 1)) + 1]; //the height is at most 2*log(n+1)
+			int top = 0;
+			int count = 0;
+			PNode current = root;
+
+			while (current != null || top > 0) {
+				while (current != null) {
+					stack[top++] = current;
+					current = current.left;
+				}
+				current = stack[--top];
+				values[count++] = current.value;
+				current = current.right;
+			}
+
+			return values;
+		}
+	}
+
+	private final AtomicReference<Snapshot> current = new AtomicReference<Snapshot>(new Snapshot(null, 0));
+
+	/* Return the latest version; it never changes, so it can be read from any thread */
+	public Snapshot snapshot() {
+		return current.get();
+	}
+
+	/* Insert "value". It returns "false" if the value already exists */
+	public boolean insert(int value) {
+		while (true) {
+			Snapshot old_version = current.get();
+			if (old_version.contains(value))
+				return false;
+
+			PNode root = blacken(insert(old_version.root, value));
+			if (current.compareAndSet(old_version, new Snapshot(root, old_version.size + 1)))
+				return true;
+		}
+	}
+
+	/* Remove "value". It returns "false" if the value does not exist */
+	public boolean delete(int value) {
+		while (true) {
+			Snapshot old_version = current.get();
+			if (!old_version.contains(value))
+				return false;
+
+			PNode root = blacken(delete(old_version.root, value));
+			if (current.compareAndSet(old_version, new Snapshot(root, old_version.size - 1)))
+				return true;
+		}
+	}
+
+	/*
+	 * Replace the content with values[0..count-1], which must be sorted without duplicates. The new version is built
+	 * balanced in linear time (the deepest, incomplete layer is red) and published at once.
+	 */
+	public void replaceAll(int[] values, int count) {
+		int red_depth = 31 - Integer.numberOfLeadingZeros(count + 1);
+		current.set(new Snapshot(build(values, 0, count - 1, 0, red_depth), count));
+	}
+
+	private static PNode build(int[] values, int low, int high, int depth, int red_depth) {
+		if (low > high)
+			return null;
+		int middle = (low + high) >>> 1;
+		return new PNode(values[middle], depth == red_depth, build(values, low, middle - 1, depth + 1, red_depth),
+				build(values, middle + 1, high, depth + 1, red_depth));
+	}
+
+	/* Return a copy of the sub-tree "node" with "value" added (the value must not exist yet) */
+	private static PNode insert(PNode node, int value) {
+		if (node == null)
+			return new PNode(value, true, null, null);
+
+		if (value < node.value)
+			return balanceLeft(node.red, node.value, insert(node.left, value), node.right);
+		else
+			return balanceRight(node.red, node.value, node.left, insert(node.right, value));
+	}
+
+	/* Build a node whose new left sub-tree may have a red-red violation at its top, and remove it */
+	private static PNode balanceLeft(boolean red, int value, PNode left, PNode right) {
+		if (!red && isRed(left)) {
+			if (isRed(left.left))
+				return new PNode(left.value, true, black(left.left), new PNode(value, false, left.right, right));
+			if (isRed(left.right))
+				return new PNode(left.right.value, true, new PNode(left.value, false, left.left, left.right.left),
+						new PNode(value, false, left.right.right, right));
+		}
+		return new PNode(value, red, left, right);
+	}
+
+	/* Build a node whose new right sub-tree may have a red-red violation at its top, and remove it */
+	private static PNode balanceRight(boolean red, int value, PNode left, PNode right) {
+		if (!red && isRed(right)) {
+			if (isRed(right.right))
+				return new PNode(right.value, true, new PNode(value, false, left, right.left), black(right.right));
+			if (isRed(right.left))
+				return new PNode(right.left.value, true, new PNode(value, false, left, right.left.left),
+						new PNode(right.value, false, right.left.right, right.right));
+		}
+		return new PNode(value, red, left, right);
+	}
+
+	/* Return a copy of the sub-tree "node" without "value" (the value must exist) */
+	private static PNode delete(PNode node, int value) {
+		if (value < node.value) {
+			if (isBlack(node.left))
+				return balLeft(node.value, delete(node.left, value), node.right);
+			return new PNode(node.value, true, delete(node.left, value), node.right);
+		}
+		if (value > node.value) {
+			if (isBlack(node.right))
+				return balRight(node.value, node.left, delete(node.right, value));
+			return new PNode(node.value, true, node.left, delete(node.right, value));
+		}
+		return append(node.left, node.right);
+	}
+
+	/* The left sub-tree lost one black layer; restore the black height */
+	private static PNode balLeft(int value, PNode left, PNode right) {
+		if (isRed(left))
+			return new PNode(value, true, black(left), right);
+		if (isBlack(right))
+			return balance(value, left, red(right));
+		//right is red with a black left child
+		return new PNode(right.left.value, true, new PNode(value, false, left, right.left.left),
+				balance(right.value, right.left.right, red(right.right)));
+	}
+
+	/* The right sub-tree lost one black layer; restore the black height */
+	private static PNode balRight(int value, PNode left, PNode right) {
+		if (isRed(right))
+			return new PNode(value, true, left, black(right));
+		if (isBlack(left))
+			return balance(value, red(left), right);
+		//left is red with a black right child
+		return new PNode(left.right.value, true, balance(left.value, red(left.left), left.right.left),
+				new PNode(value, false, left.right.right, right));
+	}
+
+	/* Build a black node and remove a red-red violation in either sub-tree */
+	private static PNode balance(int value, PNode left, PNode right) {
+		if (isRed(left) && isRed(right))
+			return new PNode(value, true, black(left), black(right));
+		if (isRed(left)) {
+			if (isRed(left.left))
+				return new PNode(left.value, true, black(left.left), new PNode(value, false, left.right, right));
+			if (isRed(left.right))
+				return new PNode(left.right.value, true, new PNode(left.value, false, left.left, left.right.left),
+						new PNode(value, false, left.right.right, right));
+		}
+		if (isRed(right)) {
+			if (isRed(right.right))
+				return new PNode(right.value, true, new PNode(value, false, left, right.left), black(right.right));
+			if (isRed(right.left))
+				return new PNode(right.left.value, true, new PNode(value, false, left, right.left.left),
+						new PNode(right.value, false, right.left.right, right.right));
+		}
+		return new PNode(value, false, left, right);
+	}
+
+	/* Join two sub-trees of the same black height whose values are all ordered "left" < "right" */
+	private static PNode append(PNode left, PNode right) {
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+
+		if (isRed(left) && isRed(right)) {
+			PNode middle = append(left.right, right.left);
+			if (isRed(middle))
+				return new PNode(middle.value, true, new PNode(left.value, true, left.left, middle.left),
+						new PNode(right.value, true, middle.right, right.right));
+			return new PNode(left.value, true, left.left, new PNode(right.value, true, middle, right.right));
+		}
+		if (isBlack(left) && isBlack(right)) {
+			PNode middle = append(left.right, right.left);
+			if (isRed(middle))
+				return new PNode(middle.value, true, new PNode(left.value, false, left.left, middle.left),
+						new PNode(right.value, false, middle.right, right.right));
+			return balLeft(left.value, left.left, new PNode(right.value, false, middle, right.right));
+		}
+		if (isRed(right))
+			return new PNode(right.value, true, append(left, right.left), right.right);
+		return new PNode(left.value, true, left.left, append(left.right, right));
+	}
+
+	private static boolean isRed(PNode node) {
+		return node != null && node.red;
+	}
+
+	/* Non-empty black node (balLeft/balRight need the black node itself, not a missing leaf) */
+	private static boolean isBlack(PNode node) {
+		return node != null && !node.red;
+	}
+
+	private static PNode black(PNode node) {
+		return node.red ? new PNode(node.value, false, node.left, node.right) : node;
+	}
+
+	private static PNode red(PNode node) {
+		return node.red ? node : new PNode(node.value, true, node.left, node.right);
+	}
+
+	private static PNode blacken(PNode node) {
+		return node == null ? null : black(node);
+	}
+}
@@ -0,0 +1,704 @@
+package application;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/*
+ * The red-black tree of int values, without any GUI dependency. The tree works on any node type derived from TreeNode and
+ * creates its nodes through createNode(), so it can run in a plain Java process. The searches compare the int values
+ * directly; the balancing is shared with LongTree and KeyTree in BalancedTree. IntTree is the plain subclass for use
+ * without JavaFX. The GUI Tree extends it too and uses the protected hooks of BalancedTree to keep its layout and drawing
+ * in sync; they do nothing by default.
+ */
+public abstract class RedBlackTree<N extends TreeNode<N>> extends BalancedTree<N> {
+	private PersistentTree snapshots; // optional immutable copy of the values for reader threads, see enableSnapshots()
+	private volatile PersistentTree published_snapshots; // the same copy for snapshot(), so the writes never read a volatile
+	private TreeLog log; // optional log that records every change, see setLog()
+
+	/* Create a node holding "value" for bulkLoad() and load() */
+	protected abstract N createNode(int value);
+
+	/*
+	 * Insert a new node into the tree and restore the red-black properties.
+	 * If a node is successfully inserted, it returns "true"
+	 * If the node to be inserted has the value already exist in the tree, it is not inserted and it returns "false"
+	 * If a log is attached (see setLog()) and it cannot take the insert, an UncheckedIOException wrapping the failure is
+	 * thrown and the tree is left unchanged: the insert is logged before the node is linked in.
+	 */
+	public boolean insertNode(N node) {
+		int comparisons = 0;
+		N parent = null; //the node the new node will hang from, null for an empty tree
+		boolean is_left = false;
+		N current_node = root;
+		
+		while (current_node != null) {
+			comparisons++;
+			int value = current_node.getValue();
+			if (node.getValue() == value) // the value is already in the tree, reject it
+			{
+				if (TreeMetrics.enabled)
+					TreeMetrics.comparisons_per_descent.record(comparisons);
+				return false;
+			}
+			parent = current_node;
+			is_left = node.getValue() < value; // go to the left or the right sub-tree
+			current_node = is_left ? current_node.getLeft() : current_node.getRight();
+		}
+		
+		if (log != null)
+			logOperation(true, node.getValue());
+		attachLeaf(node, parent, is_left);
+		if (snapshots != null)
+			snapshots.insert(node.getValue());
+		if (TreeMetrics.enabled)
+			recordInsert(comparisons);
+
+		return true;
+	}
+
+	/* Insert a node created by createNode() for "value". It returns "false" if the value already exists; a failing log is reported as in insertNode() */
+	public boolean insert(int value) {
+		return insertNode(createNode(value));
+	}
+
+	/*
+	 * Insert a node for each of "values", skipping the ones already in the tree, and return how many were inserted. If the
+	 * log fails, the values before the failing one stay inserted.
+	 */
+	public int insertAll(int... values) {
+		int inserted = 0;
+		for (int value : values) {
+			if (insert(value))
+				inserted++;
+		}
+		return inserted;
+	}
+
+	/* Return the node holding "value", or null if the value is not in the tree */
+	public N find(int value) {
+		int comparisons = 0;
+		N current_node = root;
+
+		while (current_node != null) {
+			comparisons++;
+			if (value == current_node.getValue())
+				break;
+			else if (value < current_node.getValue())
+				current_node = current_node.getLeft();
+			else
+				current_node = current_node.getRight();
+		}
+
+		if (TreeMetrics.enabled) {
+			TreeMetrics.lookups.increment();
+			TreeMetrics.comparisons_per_descent.record(comparisons);
+		}
+		return current_node;
+	}
+
+	/* Check whether "value" is stored in the tree */
+	public boolean contains(int value) {
+		return find(value) != null;
+	}
+
+	/* Return the node with the largest value <= "value", or null if every value in the tree is bigger */
+	public N floor(int value) {
+		N current_node = root;
+		N result = null;
+
+		while (current_node != null) {
+			if (value == current_node.getValue())
+				return current_node;
+			else if (value < current_node.getValue())
+				current_node = current_node.getLeft();
+			else
+			{
+				result = current_node; //candidate, but a closer one may still be in the right sub-tree
+				current_node = current_node.getRight();
+			}
+		}
+
+		return result;
+	}
+
+	/* Return the node with the smallest value >= "value", or null if every value in the tree is smaller */
+	public N ceiling(int value) {
+		N current_node = root;
+		N result = null;
+
+		while (current_node != null) {
+			if (value == current_node.getValue())
+				return current_node;
+			else if (value > current_node.getValue())
+				current_node = current_node.getRight();
+			else
+			{
+				result = current_node; //candidate, but a closer one may still be in the left sub-tree
+				current_node = current_node.getLeft();
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * Remove the node holding "value" from the tree. It returns "true" if a node is removed and "false" if the value does not
+	 * exist. Like insertNode(), it logs the delete first and throws an UncheckedIOException without changing the tree if the
+	 * log fails.
+	 */
+	public boolean delete(int value) {
+		int comparisons = 1;
+		N target_node = root;
+		while (target_node != null && target_node.getValue() != value) {
+			comparisons++;
+			if (value < target_node.getValue())
+				target_node = target_node.getLeft();
+			else
+				target_node = target_node.getRight();
+		}
+		if (target_node == null) {
+			if (TreeMetrics.enabled)
+				TreeMetrics.comparisons_per_descent.record(comparisons - 1);
+			return false;
+		}
+		if (log != null)
+			logOperation(false, value);
+		unlink(target_node);
+		if (snapshots != null)
+			snapshots.delete(value);
+		if (TreeMetrics.enabled)
+			recordDelete(comparisons);
+
+		return true;
+	}
+
+	/*
+	 * Replace the content of the tree with the values in "values". The values are sorted and duplicates are dropped, then a
+	 * balanced tree is built bottom-up in linear time without any rotation: every layer is full except the deepest one, whose
+	 * nodes are colored red, so all paths have the same number of black nodes.
+	 */
+	public void bulkLoad(int[] values) {
+		int[] sorted_values = values.clone();
+		Arrays.sort(sorted_values); //nearly linear for input that is already sorted
+
+		//Remove the duplicates in place
+		int count = 0;
+		for (int i = 0; i < sorted_values.length; i++) {
+			if (count == 0 || sorted_values[i] != sorted_values[count - 1])
+				sorted_values[count++] = sorted_values[i];
+		}
+
+		//The tree of height h holds 2^h - 1 nodes in its full layers; the nodes below them are red
+		int red_depth = 31 - Integer.numberOfLeadingZeros(count + 1);
+
+		if (log != null)
+			logReplaced(sorted_values, count); //before the old content is dropped, like the single inserts and deletes
+		contentReplaced();
+		root = buildBalanced(sorted_values, 0, count - 1, null, false, 0, red_depth);
+		size = count;
+		if (root != null)
+			subTreeMoved(root);
+		if (snapshots != null)
+			snapshots.replaceAll(sorted_values, count);
+	}
+
+	/* Same as bulkLoad(int[]) for a stream of values */
+	public void bulkLoad(IntStream values) {
+		bulkLoad(values.toArray());
+	}
+
+	/* Bring the snapshot copy and the log up to date after the whole content was replaced by load() or a set operation */
+	private void contentLoaded() {
+		int[] values = toArray();
+		if (snapshots != null)
+			snapshots.replaceAll(values, size);
+		if (log != null)
+			logReplaced(values, size);
+	}
+
+	/*
+	 * Replace the content of the tree with a copy of "model", keeping its shape and colors. Every key gets a node from
+	 * createNode(), which for the GUI Tree is a full Node, so this is meant for small trees; a large model should stay compact.
+	 */
+	public void load(CompactTree model) {
+		contentReplaced();
+		root = copyNodes(model, model.getRoot(), null, false);
+		size = model.size();
+		if (root != null)
+			subTreeMoved(root);
+		if (snapshots != null || log != null)
+			contentLoaded();
+	}
+
+	/* Create the nodes for the sub-tree of "model" rooted at "index", link them to "parent" and return the new root */
+	private N copyNodes(CompactTree model, int index, N parent, boolean is_left) {
+		if (index == CompactTree.NIL)
+			return null;
+
+		N node = createNode(model.keyAt(index));
+		node.setColor(model.colorOf(index));
+		node.setParent(parent);
+		node.setLeft_child_of_parent(is_left);
+
+		node.setLeft(copyNodes(model, model.leftOf(index), node, true));
+		node.setRight(copyNodes(model, model.rightOf(index), node, false));
+		if (aggregates_enabled)
+			node.updateAggregates();
+
+		return node;
+	}
+
+	/* Replace the content of the tree with the nodes stored in "file", keeping their shape and colors */
+	public void load(TreeFile file) {
+		contentReplaced();
+		root = copyRecords(file, 0, file.size(), null, false);
+		size = file.size();
+		if (root != null)
+			subTreeMoved(root);
+		if (snapshots != null || log != null)
+			contentLoaded();
+	}
+
+	/* Create the nodes for the "count" records of "file" from "index" on (one sub-tree in pre-order) and return its root */
+	private N copyRecords(TreeFile file, int index, int count, N parent, boolean is_left) {
+		if (count == 0)
+			return null;
+
+		int left_size = file.leftSizeAt(index);
+		N node = createNode(file.keyAt(index));
+		node.setColor(file.colorAt(index));
+		node.setParent(parent);
+		node.setLeft_child_of_parent(is_left);
+
+		node.setLeft(copyRecords(file, index + 1, left_size, node, true));
+		node.setRight(copyRecords(file, index + 1 + left_size, count - 1 - left_size, node, false));
+		if (aggregates_enabled)
+			node.updateAggregates();
+
+		return node;
+	}
+
+	/* Build the sub-tree for values[low..high], link it to "parent" and return its root (null for an empty range) */
+	private N buildBalanced(int[] values, int low, int high, N parent, boolean is_left, int depth, int red_depth) {
+		if (low > high)
+			return null;
+
+		int middle = (low + high) >>> 1;
+		N node = createNode(values[middle]);
+		node.setColor(depth == red_depth ? TreeNode.RED : TreeNode.BLACK);
+		node.setParent(parent);
+		node.setLeft_child_of_parent(is_left);
+
+		node.setLeft(buildBalanced(values, low, middle - 1, node, true, depth + 1, red_depth));
+		node.setRight(buildBalanced(values, middle + 1, high, node, false, depth + 1, red_depth));
+		if (aggregates_enabled)
+			node.updateAggregates();
+
+		return node;
+	}
+
+	/*
+	 * Start keeping the size, sum, minimum and maximum of every sub-tree in its root node. This takes one O(n) pass now;
+	 * afterwards an insert or delete updates the O(log n) nodes on its path and each rotation updates two nodes, and
+	 * rank(), select(), countInRange() and sumInRange() answer in O(log n).
+	 */
+	public void enableAggregates() {
+		if (aggregates_enabled)
+			return;
+		aggregates_enabled = true;
+
+		//Post-order traversal, so that the children are always updated before their parent
+		ArrayDeque<N> stack = new ArrayDeque<N>();
+		N current_node = root;
+		N last_visited = null;
+		while (current_node != null || !stack.isEmpty()) {
+			if (current_node != null) {
+				stack.push(current_node);
+				current_node = current_node.getLeft();
+			} else {
+				N top = stack.peek();
+				if (top.getRight() != null && top.getRight() != last_visited) {
+					current_node = top.getRight();
+				} else {
+					top.updateAggregates();
+					last_visited = stack.pop();
+				}
+			}
+		}
+	}
+
+	private void checkAggregates() {
+		if (!aggregates_enabled)
+			throw new IllegalStateException("aggregates are not enabled for this tree");
+	}
+
+	/* Return the number of values smaller than "value" */
+	public int rank(int value) {
+		checkAggregates();
+		return countBelow(value, false);
+	}
+
+	/* Return the node with the k-th smallest value (k = 0 for the smallest), or null if k is out of range */
+	public N select(int k) {
+		checkAggregates();
+		N current_node = root;
+
+		while (current_node != null) {
+			int left_size = (current_node.getLeft() != null) ? current_node.getLeft().getSubtree_size() : 0;
+			if (k < left_size) {
+				current_node = current_node.getLeft();
+			} else if (k == left_size) {
+				return current_node;
+			} else {
+				k -= left_size + 1;
+				current_node = current_node.getRight();
+			}
+		}
+
+		return null;
+	}
+
+	/* Return the number of values in [low, high] */
+	public int countInRange(int low, int high) {
+		checkAggregates();
+		if (low > high)
+			return 0;
+		return countBelow(high, true) - countBelow(low, false);
+	}
+
+	/* Return the sum of the values in [low, high] */
+	public long sumInRange(int low, int high) {
+		checkAggregates();
+		if (low > high)
+			return 0;
+		return sumBelow(high, true) - sumBelow(low, false);
+	}
+
+	/* Count the values < "value" (or <= "value" if "inclusive") along one root-to-leaf path */
+	private int countBelow(int value, boolean inclusive) {
+		int count = 0;
+		N current_node = root;
+
+		while (current_node != null) {
+			if (current_node.getValue() < value || (inclusive && current_node.getValue() == value)) {
+				//current_node and its whole left sub-tree are below value
+				count += 1 + ((current_node.getLeft() != null) ? current_node.getLeft().getSubtree_size() : 0);
+				current_node = current_node.getRight();
+			} else {
+				current_node = current_node.getLeft();
+			}
+		}
+
+		return count;
+	}
+
+	/* Sum the values < "value" (or <= "value" if "inclusive") along one root-to-leaf path */
+	private long sumBelow(int value, boolean inclusive) {
+		long sum = 0;
+		N current_node = root;
+
+		while (current_node != null) {
+			if (current_node.getValue() < value || (inclusive && current_node.getValue() == value)) {
+				sum += current_node.getValue() + ((current_node.getLeft() != null) ? current_node.getLeft().getSubtree_sum() : 0);
+				current_node = current_node.getRight();
+			} else {
+				current_node = current_node.getLeft();
+			}
+		}
+
+		return sum;
+	}
+
+	/* Return all values in ascending order */
+	public int[] toArray() {
+		int[] values = new int[size];
+		ArrayDeque<N> stack = new ArrayDeque<N>();
+		int count = 0;
+		N current_node = root;
+
+		while (current_node != null || !stack.isEmpty()) {
+			while (current_node != null) {
+				stack.push(current_node);
+				current_node = current_node.getLeft();
+			}
+			current_node = stack.pop();
+			values[count++] = current_node.getValue();
+			current_node = current_node.getRight();
+		}
+
+		return values;
+	}
+
+	/* Return the values as an ordered stream; it can be made parallel(), and the tree must not change while it runs */
+	public IntStream stream() {
+		return StreamSupport.intStream(new ValueSpliterator(root, Integer.MIN_VALUE, Integer.MAX_VALUE, size, true), false);
+	}
+
+	/* Return the values in [low, high] as an ordered stream, like stream() */
+	public IntStream range(int low, int high) {
+		if (low > high)
+			return IntStream.empty();
+		if (aggregates_enabled)
+			return StreamSupport.intStream(new ValueSpliterator(root, low, high, countInRange(low, high), true), false);
+		return StreamSupport.intStream(new ValueSpliterator(root, low, high, size, false), false);
+	}
+
+	/*
+	 * Walks the values of a sub-tree that lie in [low, high] in ascending order. Every value of the tree inside the bounds
+	 * is in that sub-tree, so a split only has to cut the bounds at a node value: the lower half keeps the values below it
+	 * and the upper half starts at the node itself. The walk keeps an explicit stack of at most one path, so it allocates
+	 * nothing per value and never recurses. Sizes are exact when the tree keeps aggregates; otherwise each half estimates
+	 * half of its parent.
+	 */
+	private final class ValueSpliterator implements Spliterator.OfInt {
+		private N top; // the sub-tree holding every value in [low, high]
+		private int low;
+		private int high;
+		private long estimate;
+		private boolean sized; // whether "estimate" is exact
+		private ArrayDeque<N> stack; // the pending nodes of the walk, null until it starts
+
+		ValueSpliterator(N top, int low, int high, long estimate, boolean sized) {
+			this.top = top;
+			this.low = low;
+			this.high = high;
+			this.estimate = estimate;
+			this.sized = sized;
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			if (stack != null)
+				return null;
+
+			N common = highestInRange(top, low, high);
+			if (common == null)
+				return null;
+			top = common;
+
+			//the upper half must start above "low", otherwise the lower half would be empty
+			N split_node = common;
+			if (common.getValue() == low) {
+				if (low == high)
+					return null;
+				split_node = highestInRange(common.getRight(), low + 1, high);
+				if (split_node == null)
+					return null;
+			}
+
+			int split_value = split_node.getValue();
+			N lower_top = (split_node == common) ? common.getLeft() : common;
+			ValueSpliterator lower;
+			if (aggregates_enabled) {
+				lower = new ValueSpliterator(lower_top, low, split_value - 1, countInRange(low, split_value - 1), true);
+			} else {
+				lower = new ValueSpliterator(lower_top, low, split_value - 1, estimate >>> 1, false);
+				sized = false;
+			}
+			estimate -= lower.estimate;
+			top = split_node;
+			low = split_value;
+			return lower;
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			if (stack == null)
+				start();
+			if (stack.isEmpty())
+				return false;
+
+			N node = stack.pop();
+			pushLeftPath(node.getRight());
+			action.accept(node.getValue());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			if (stack == null)
+				start();
+			while (!stack.isEmpty()) {
+				N node = stack.pop();
+				pushLeftPath(node.getRight());
+				action.accept(node.getValue());
+			}
+		}
+
+		@Override
+		public long estimateSize() {
+			return estimate;
+		}
+
+		@Override
+		public int characteristics() {
+			int characteristics = ORDERED | SORTED | DISTINCT | NONNULL;
+			if (sized)
+				characteristics |= SIZED;
+			if (aggregates_enabled)
+				characteristics |= SUBSIZED;
+			return characteristics;
+		}
+
+		@Override
+		public Comparator<? super Integer> getComparator() {
+			return null; //natural order
+		}
+
+		private void start() {
+			stack = new ArrayDeque<N>();
+			pushLeftPath(top);
+		}
+
+		/* Push the in-range nodes on the way from "node" down to its smallest in-range value */
+		private void pushLeftPath(N node) {
+			while (node != null) {
+				if (node.getValue() < low) {
+					node = node.getRight();
+				} else if (node.getValue() > high) {
+					node = node.getLeft();
+				} else {
+					stack.push(node);
+					node = node.getLeft();
+				}
+			}
+		}
+
+		/* Return the highest node under "node" whose value is in [low, high], or null if there is none */
+		private N highestInRange(N node, int low, int high) {
+			while (node != null) {
+				if (node.getValue() < low)
+					node = node.getRight();
+				else if (node.getValue() > high)
+					node = node.getLeft();
+				else
+					return node;
+			}
+			return null;
+		}
+	}
+
+	/*
+	 * Start keeping a persistent copy of the values, so that other threads can read consistent snapshots without locking
+	 * while this tree is being changed. The copy is a second tree beside this one, not shared with it: these nodes are
+	 * changed in place and carry parent links, so path copying cannot reuse them. Every insert and delete is then applied
+	 * twice, costing O(log n) more time and O(log n) new nodes, and the copy holds n nodes of its own. Without snapshots,
+	 * the writes only test a plain field.
+	 */
+	public void enableSnapshots() {
+		if (snapshots == null) {
+			PersistentTree copy = new PersistentTree();
+			copy.replaceAll(toArray(), size);
+			snapshots = copy;
+			published_snapshots = copy;
+		}
+	}
+
+	/*
+	 * Add every value of "other" to this tree. This and the following set operations split this tree at the values of
+	 * "other" and join the parts back in parallel on the common fork-join pool (see TreeJoin), in O(m log(n/m + 1)) work;
+	 * "other" is only read, and this tree gets new nodes only for the values it did not have. Neither tree may change until
+	 * they return. The GUI sees the result as new content, like after bulkLoad().
+	 */
+	public void union(RedBlackTree<N> other) {
+		if (other != this)
+			setOperation(TreeJoin.Operation.UNION, other);
+	}
+
+	/* Keep only the values that are also in "other" */
+	public void intersect(RedBlackTree<N> other) {
+		if (other != this)
+			setOperation(TreeJoin.Operation.INTERSECTION, other);
+	}
+
+	/* Remove every value that is in "other" */
+	public void difference(RedBlackTree<N> other) {
+		if (other == this)
+			bulkLoad(new int[0]);
+		else
+			setOperation(TreeJoin.Operation.DIFFERENCE, other);
+	}
+
+	private void setOperation(TreeJoin.Operation operation, RedBlackTree<N> other) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		contentReplaced();
+		TreeJoin.Part<N> result;
+		parallelChangeStarted(); //happens before the tasks run, and they all happen before the end of run()
+		try {
+			result = new TreeJoin<N>(this, aggregates_enabled, pool).run(pool, operation, root, other.getRoot());
+		} finally {
+			parallelChangeFinished();
+		}
+
+		root = result.root;
+		if (operation == TreeJoin.Operation.UNION)
+			size += result.count;
+		else if (operation == TreeJoin.Operation.INTERSECTION)
+			size = result.count;
+		else
+			size -= result.count;
+		if (root != null) {
+			root.setParent(null);
+			root.setColor(TreeNode.BLACK);
+			subTreeMoved(root);
+		}
+		if (snapshots != null || log != null)
+			contentLoaded();
+	}
+
+	/*
+	 * Check every red-black rule, the search order, the parent links and (if enabled) the sub-tree aggregates in parallel on
+	 * the common fork-join pool, and return what was found. The tree must not change until it returns.
+	 */
+	public TreeVerifier.Report verify() {
+		return TreeVerifier.verify(this, aggregates_enabled);
+	}
+
+	/* Return the latest snapshot of the values; enableSnapshots() must have been called */
+	public PersistentTree.Snapshot snapshot() {
+		PersistentTree copy = published_snapshots;
+		if (copy == null)
+			throw new IllegalStateException("snapshots are not enabled for this tree");
+		return copy.snapshot();
+	}
+
+	/*
+	 * Record every following insert and delete in "log" (null stops it). The log only buffers them; the caller decides when
+	 * to commit, so that a batch of changes costs one write. Replay an existing log before attaching it. A change is logged
+	 * before it is applied, so a log failure (an UncheckedIOException) leaves an insert or delete undone.
+	 */
+	public void setLog(TreeLog log) {
+		this.log = log;
+	}
+
+	public TreeLog getLog() {
+		return log;
+	}
+
+	private void logOperation(boolean insert, int value) {
+		try {
+			if (insert)
+				log.logInsert(value);
+			else
+				log.logDelete(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void logReplaced(int[] values, int count) {
+		try {
+			log.logReplaced(values, count);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
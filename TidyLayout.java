@@ -0,0 +1,261 @@
+package application;
+
+import java.util.Arrays;
+
+/*
+ * Tidy drawing of a binary tree after Reingold and Tilford ("Tidier Drawings of Trees"), with the threads and extreme nodes
+ * of Walker so that it runs in linear time. Every node is centered above its children, a single child goes half the
+ * separation to its side (so a left child is always drawn to the left), and two sibling sub-trees are pushed together until
+ * their facing contours are "separation" apart on some layer. Nodes on the same layer therefore never overlap, and a
+ * sub-tree is drawn the same way wherever it is in the tree.
+ *
+ * The nodes are slots, indexes into the arrays below, and their children are given as slots with setChildren(). Placing a
+ * node computes the x of its children relative to it, walking the right contour of the left sub-tree and the left contour
+ * of the right sub-tree down to the lower of the two; where one contour ends, its deepest outer node is threaded to the
+ * continuation of the other one, so later walks skip the sub-tree interior. Every node keeps what the placement of its
+ * parent needs (its offset, height, horizontal extent, the extreme nodes of its deepest layer and the threads below it),
+ * so a node can be placed as soon as its children are:
+ *   - layout() places a whole tree numbered in post-order (children before their parent, the root last) in one loop
+ *   - place() places a single node again, so after a change only the changed nodes and their ancestors are placed,
+ *     children first, while every other sub-tree keeps its placement
+ * The contour walks of a whole layout together visit O(n) nodes, so it costs O(n) time; placing a node again costs the
+ * walk down its shorter sub-tree, at most O(log n) in a red-black tree.
+ */
+public class TidyLayout {
+	private final double separation; //smallest distance between the x of two nodes on the same layer
+
+	private int count; //number of nodes of the last reset()
+	private int[] left = new int[0]; //left child slot, -1 if none
+	private int[] right = new int[0]; //right child slot, -1 if none
+
+	//Placement of every node, kept until the node is placed again
+	private double[] offset = new double[0]; //x relative to the parent
+	private double[] min_x = new double[0]; //horizontal extent of the sub-tree relative to the node
+	private double[] max_x = new double[0];
+	private int[] thread = new int[0]; //next node of a contour below this leaf, -1 if none
+	private double[] thread_offset = new double[0]; //x of the thread target relative to this node
+	private int[] extreme_left = new int[0]; //leftmost node on the deepest layer of the sub-tree
+	private int[] extreme_right = new int[0]; //rightmost node on the deepest layer of the sub-tree
+	private double[] extreme_left_x = new double[0]; //x of extreme_left relative to the sub-tree root
+	private double[] extreme_right_x = new double[0];
+	private int[] height = new int[0]; //number of layers below the sub-tree root
+
+	public TidyLayout(double separation) {
+		this.separation = separation;
+	}
+
+	/*
+	 * Start a layout of the "count" nodes 0 to count - 1; the children of every node are given with setChildren() afterwards.
+	 * New arrays get room for a quarter more slots, so that the nodes inserted after a whole layout rarely have to grow them.
+	 */
+	public void reset(int count) {
+		this.count = count;
+		if (left.length < count) {
+			int capacity = Math.max(count + count / 4 + 16, left.length * 3 / 2);
+			left = new int[capacity];
+			right = new int[capacity];
+			offset = new double[capacity];
+			min_x = new double[capacity];
+			max_x = new double[capacity];
+			thread = new int[capacity];
+			thread_offset = new double[capacity];
+			extreme_left = new int[capacity];
+			extreme_right = new int[capacity];
+			extreme_left_x = new double[capacity];
+			extreme_right_x = new double[capacity];
+			height = new int[capacity];
+		}
+		Arrays.fill(left, 0, count, -1);
+		Arrays.fill(right, 0, count, -1);
+	}
+
+	/* Make room for the slots below "capacity", keeping the placement of the existing ones */
+	public void ensureCapacity(int capacity) {
+		if (left.length >= capacity)
+			return;
+		capacity = Math.max(capacity, left.length * 3 / 2);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		offset = Arrays.copyOf(offset, capacity);
+		min_x = Arrays.copyOf(min_x, capacity);
+		max_x = Arrays.copyOf(max_x, capacity);
+		thread = Arrays.copyOf(thread, capacity);
+		thread_offset = Arrays.copyOf(thread_offset, capacity);
+		extreme_left = Arrays.copyOf(extreme_left, capacity);
+		extreme_right = Arrays.copyOf(extreme_right, capacity);
+		extreme_left_x = Arrays.copyOf(extreme_left_x, capacity);
+		extreme_right_x = Arrays.copyOf(extreme_right_x, capacity);
+		height = Arrays.copyOf(height, capacity);
+	}
+
+	/* Set the children of node "index", -1 for a missing child */
+	public void setChildren(int index, int left_child, int right_child) {
+		left[index] = left_child;
+		right[index] = right_child;
+	}
+
+	/* Place the nodes of the last reset(), which must be numbered in post-order; the root is the node with the highest index */
+	public void layout() {
+		for (int node = 0; node < count; node++)
+			place(node);
+	}
+
+	/*
+	 * Place the children of "node" relative to it. The children must be placed already, either before in this layout or in
+	 * an earlier one if their sub-trees did not change since.
+	 */
+	public void place(int node) {
+		//A thread that an earlier placement of an ancestor left below a child ends at the child's extreme nodes; it is
+		//cleared, because the contour continues elsewhere (or nowhere) in the new placement
+		if (left[node] >= 0) {
+			thread[extreme_left[left[node]]] = -1;
+			thread[extreme_right[left[node]]] = -1;
+		}
+		if (right[node] >= 0) {
+			thread[extreme_left[right[node]]] = -1;
+			thread[extreme_right[right[node]]] = -1;
+		}
+		placeChildren(node);
+	}
+
+	/* Place the children of "node", whose sub-trees are already laid out, relative to it */
+	private void placeChildren(int node) {
+		int left_child = left[node];
+		int right_child = right[node];
+		thread[node] = -1;
+		min_x[node] = 0;
+		max_x[node] = 0;
+
+		if (left_child < 0 && right_child < 0) {
+			height[node] = 0;
+			extreme_left[node] = node;
+			extreme_right[node] = node;
+			extreme_left_x[node] = 0;
+			extreme_right_x[node] = 0;
+			return;
+		}
+		if (right_child < 0) {
+			offset[left_child] = -separation / 2;
+			inheritExtremes(node, left_child, left_child);
+			includeExtent(node, left_child);
+			return;
+		}
+		if (left_child < 0) {
+			offset[right_child] = separation / 2;
+			inheritExtremes(node, right_child, right_child);
+			includeExtent(node, right_child);
+			return;
+		}
+
+		//Walk down the facing contours layer by layer; "shift" ends up as the distance the right sub-tree needs
+		int inner_left = left_child; //on the right contour of the left sub-tree
+		int inner_right = right_child; //on the left contour of the right sub-tree
+		double inner_left_x = 0; //relative to left_child
+		double inner_right_x = 0; //relative to right_child
+		double shift = separation;
+		int next_left;
+		int next_right;
+		double next_left_x;
+		double next_right_x;
+		while (true) {
+			shift = Math.max(shift, separation + inner_left_x - inner_right_x);
+
+			//Next node of the right contour of the left sub-tree
+			if (right[inner_left] >= 0) {
+				next_left = right[inner_left];
+				next_left_x = inner_left_x + offset[next_left];
+			} else if (left[inner_left] >= 0) {
+				next_left = left[inner_left];
+				next_left_x = inner_left_x + offset[next_left];
+			} else {
+				next_left = thread[inner_left];
+				next_left_x = inner_left_x + thread_offset[inner_left];
+			}
+
+			//Next node of the left contour of the right sub-tree
+			if (left[inner_right] >= 0) {
+				next_right = left[inner_right];
+				next_right_x = inner_right_x + offset[next_right];
+			} else if (right[inner_right] >= 0) {
+				next_right = right[inner_right];
+				next_right_x = inner_right_x + offset[next_right];
+			} else {
+				next_right = thread[inner_right];
+				next_right_x = inner_right_x + thread_offset[inner_right];
+			}
+
+			if (next_left < 0 || next_right < 0)
+				break;
+			inner_left = next_left;
+			inner_left_x = next_left_x;
+			inner_right = next_right;
+			inner_right_x = next_right_x;
+		}
+
+		offset[left_child] = -shift / 2;
+		offset[right_child] = shift / 2;
+		includeExtent(node, left_child);
+		includeExtent(node, right_child);
+
+		//Below the shorter sub-tree its outer contour continues on the taller one
+		if (height[left_child] > height[right_child]) {
+			int leaf = extreme_right[right_child];
+			thread[leaf] = next_left;
+			thread_offset[leaf] = (offset[left_child] + next_left_x) - (offset[right_child] + extreme_right_x[right_child]);
+			inheritExtremes(node, left_child, left_child);
+		} else if (height[right_child] > height[left_child]) {
+			int leaf = extreme_left[left_child];
+			thread[leaf] = next_right;
+			thread_offset[leaf] = (offset[right_child] + next_right_x) - (offset[left_child] + extreme_left_x[left_child]);
+			inheritExtremes(node, right_child, right_child);
+		} else {
+			inheritExtremes(node, left_child, right_child);
+		}
+	}
+
+	/* Take the deepest layer of "node" from its children: the leftmost node from "from_left", the rightmost from "from_right" */
+	private void inheritExtremes(int node, int from_left, int from_right) {
+		height[node] = height[from_left] + 1;
+		extreme_left[node] = extreme_left[from_left];
+		extreme_left_x[node] = offset[from_left] + extreme_left_x[from_left];
+		extreme_right[node] = extreme_right[from_right];
+		extreme_right_x[node] = offset[from_right] + extreme_right_x[from_right];
+	}
+
+	/* Widen the horizontal extent of "node" by the sub-tree of "child", which is placed relative to it */
+	private void includeExtent(int node, int child) {
+		min_x[node] = Math.min(min_x[node], offset[child] + min_x[child]);
+		max_x[node] = Math.max(max_x[node], offset[child] + max_x[child]);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int capacity() {
+		return left.length;
+	}
+
+	/* x of node "index" relative to its parent, set when the parent was placed */
+	public double getOffset(int index) {
+		return offset[index];
+	}
+
+	/* Number of layers below node "index" */
+	public int getHeight(int index) {
+		return height[index];
+	}
+
+	/* Horizontal extent of the sub-tree of node "index" relative to the node */
+	public double getMin_x(int index) {
+		return min_x[index];
+	}
+
+	public double getMax_x(int index) {
+		return max_x[index];
+	}
+
+	public double getSeparation() {
+		return separation;
+	}
+}
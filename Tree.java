@@ -1,71 +1,85 @@
 package application;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
-import javafx.geometry.Point2D;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
 
-public class Tree {
-	private Node root; // the root node of the tree
+public class Tree extends RedBlackTree<Node> {
 	
 	
 	/*******************************	Implementation Here:  *****************************************/
 	
 	/*
-	 * The function below is to insert a new node to the tree. You need to modify it by imposing "Red-Black" constraints
-	 * If a node is successfully inserted, it returns "true"
-	 * If the node to be inserted has the value already exist in the tree, it should not be inserted and return "false". So you need to modify the code to forbid 
-	 * nodes with repeating values to be inserted. 
+	 * The red-black algorithms (insert, delete, lookups, bulk loading) are in RedBlackTree. The hooks below keep the layout,
+	 * the dirty regions and the spatial index of the GUI in sync with the structural changes made there.
 	 */
-	public boolean insertNode(Node node) {
-		
-		//Here is just an example of setting colors for a node. So far, it is in green color. But you need to modify the code to dynamically adjust the color to
-		//either RED or BLACK according to the red-black logic 
-		node.setColor(Node.GREEN);
-		
-		// if the root exists
-		if (root == null) {
-			root = node; // let the root point to the current node
-		} else {
-			Node current_node = root;
-			while (current_node != null) {
-				int value = current_node.getValue();
-				if (node.getValue() < value) // go to the left sub-tree
-				{
-					if (current_node.getLeft() != null) // if the left node is
-														// not empty
-					{
-						current_node = current_node.getLeft();
-					} else // put node as the left child of current_node
-					{
-						current_node.setLeft(node);
-						current_node = null;
-					}
-				} else // go to the right
-				{
-					if (current_node.getRight() != null) // if the right node is
-															// not empty
-					{
-						current_node = current_node.getRight();
-					} else // put node as the right child of current_node
-					{
-						current_node.setRight(node);
-						current_node = null;
-					}
+	@Override
+	protected Node createNode(int value) {
+		return (canvas != null) ? new Node(value, this, canvas, gc) : new Node(value);
+	}
 
-				}
-			}
+	@Override
+	protected void subTreeMoved(Node node) {
+		markLayoutDirty(node);
+	}
+
+	@Override
+	protected void beforeRelink(Node node) {
+		markNodeRegionDirty(node); //the edges around the node change, so their old drawing has to be cleared
+		markBoundsDirty(node); //the sub-tree boxes of the node and its old parent change with the links
+		markLayoutDirty(node); //and so do the children of both
+		if (node.getParent() != null) {
+			markBoundsDirty(node.getParent());
+			markLayoutDirty(node.getParent());
 		}
+	}
 
-		return true;
+	@Override
+	protected void nodeRemoved(Node node) {
+		markLayoutDirty(node); //the neighbors of a removed leaf move closer together
+		releaseSlot(node);
+		if (selected_node == node)
+			selected_node = null;
+		if (new_node == node)
+			new_node = null;
 	}
 
-	
+	@Override
+	protected void contentReplaced() {
+		resetGUIState();
+	}
+
+	/*
+	 * While a set operation runs, Node.setColor() is called on fork-join workers, so the dirty regions, boxes and versions
+	 * are left alone (markNodeRegionDirty(), markBoundsDirty(), markLayoutDirty()). The flag is written on this thread
+	 * before the tasks start and after they all ended, so the workers see it without synchronization. The whole canvas is
+	 * redrawn afterwards, and the new root marks the layout as stale.
+	 */
+	@Override
+	protected void parallelChangeStarted() {
+		parallel_change = true;
+	}
 
+	@Override
+	protected void parallelChangeFinished() {
+		parallel_change = false;
+		repaintAll();
+	}
+	
 	
 /*************************************************	End of Implementation   **************************************************************/
 
@@ -76,13 +90,10 @@ public class Tree {
 /***********************************************	 The data members and functions below are just for the GUI Part ******************************************/
 	
 	/* Below are the GUI part you don't need to use*/
-	private int tree_max_height; // record the maximum height of the tree
-	private int tree_max_width; // record the maximum width of the tree
 	private Canvas canvas; // the canvas where a node is drawn
 	private GraphicsContext gc; // the brush used to draw on canvas
 	private int canvas_width = 640;
 	private int canvas_height = 480;
-	private Vector<Vector<Node>> layer_nodes = new Vector<Vector<Node>>(); //store each node into the corresponding layer 
 	private Node new_node; //the newly inserted node
 	private double old_dragging_x;
 	private double old_dragging_y;
@@ -92,6 +103,51 @@ public class Tree {
 	private double delta_y;
 	private int radius = 30; //the size of the node
 	private int select_node_value; //indicate which node is selected
+	private long layout_version = 0; //increased whenever a node moves in the tree
+	private long laid_out_version = 0; //the tree version of the current node positions
+	private TidyLayout tidy_layout = new TidyLayout(radius * 1.5); //the placement of every node in its slot (Node.getIdx())
+	private boolean layout_valid = false; //tidy_layout holds every node, so that changes can be placed incrementally
+	private ArrayList<Node> layout_dirty_nodes = new ArrayList<Node>(); //nodes whose children changed or that were dragged
+	private ArrayList<Node> dragged_nodes = new ArrayList<Node>(); //roots of the sub-trees dragged since the last layout
+	private boolean dragged_nodes_resolved = false; //the positions of dragged_nodes are up to date since their last drag
+	private int layout_pass = 0; //increased on every incremental layout; nodes remember the last one that placed them
+	private int next_slot = 0; //the lowest slot of tidy_layout that was never used
+	private int[] free_slots = new int[16]; //slots of deleted nodes, used again first
+	private int free_slot_count = 0;
+	private boolean background_layout = false; //compute layouts on layout_executor instead of the calling thread
+	private boolean layout_running = false; //a background layout was started and its result did not come back yet
+	private ExecutorService layout_executor; //the background layout thread, created on first use
+	private double root_x = 320; //canvas position of the root
+	private double root_y = 5;
+	private double layout_min_x = 0; //horizontal extent of the last layout relative to the root
+	private double layout_max_x = 0;
+	private int layout_max_depth = 0;
+	private int layout_height = 0; //height() and blackHeight() at the last layout, for the metrics without walking the tree
+	private int layout_black_height = 0;
+	private boolean fit_to_view = true; //keep the whole tree in view after every layout, until the next zoom or pan
+	private ArrayList<BoundingBox> dirty_regions = new ArrayList<BoundingBox>(); //canvas areas that have to be redrawn
+	private boolean repaint_all = true; //redraw the whole canvas on the next repaint
+	private int max_dirty_regions = 16; //above this number the dirty regions are merged into one box
+	private int dirty_margin = 3; //extra space around a node for the selection ring and anti-aliasing
+	private AnimationTimer redraw_timer; //runs one pending showTreeLater() on the next frame, created on first use
+	private boolean redraw_pending = false; //a showTreeLater() is waiting for the next frame
+	private double view_x = 0; //the canvas coordinate shown at the left edge of the viewport
+	private double view_y = 0; //the canvas coordinate shown at the top edge of the viewport
+	private double view_scale = 1; //the zoom factor of the viewport
+	private double min_scale = 0.01;
+	private double max_scale = 8;
+	private boolean panning = false; //the mouse drags the viewport instead of a node
+	private ArrayList<Node> bounds_dirty_nodes = new ArrayList<Node>(); //nodes whose sub-tree box changed since the last drawing
+	private int bounds_pass = 0; //increased on every bounds update; nodes remember the last update that recomputed them
+	private double lod_node_size = 10; //below this on-screen node size, small sub-trees are drawn as one summary each
+	private double lod_summary_size = 64; //the largest on-screen width or height of a sub-tree drawn as a summary
+	private int lod_cell_capacity = 4; //a sub-tree whose root falls on a screen cell that already holds this many nodes is summarized
+	private int[] lod_cells; //number of nodes queued for drawing per screen cell during a full drawing, null otherwise
+	private int lod_columns; //number of screen cells per row
+	private double lod_cell_size; //size of a screen cell in pixels
+	private boolean summaries_drawn = false; //whether the last drawing contains summaries
+	private boolean metrics_overlay = false; //draw the TreeMetrics values over the tree
+	private boolean parallel_change = false; //a set operation changes the nodes on fork-join workers, which must not touch the GUI data
 
 	
 	
@@ -104,81 +160,528 @@ public class Tree {
 	public Tree(Canvas c, GraphicsContext gc) {
 		canvas = c;
 		this.gc = gc;
+		enableAggregates(); //the summaries of the level-of-detail drawing show the sub-tree size and key range
 	}
 	
 	
 	
 	/*
-	 * The function below is for GUI use to make sure the tree fits in the
-	 * canvas: (1) according to the current tree distribution, determine the
-	 * tree height and width; (2) Check whether there is any overlap between
-	 * tree nodes
+	 * Remember that "node" got a new parent or other children, became the root or was removed, so the tree has to be laid
+	 * out again; the next incremental layout places it and its ancestors again
 	 */
-	private void organizeTree() {
-		//Reset several variables
-		layer_nodes.clear(); //clear the layer
-		
-		
-		//Set positions on Canvas
-		
-		
-		
+	void markLayoutDirty(Node node) {
+		if (canvas == null || parallel_change) //a tree without canvas is never laid out
+			return;
+		layout_version++;
+		if (layout_valid)
+			layout_dirty_nodes.add(node);
+	}
+
+	/* Forget the incremental layout state, so that the next layout places every node again */
+	void invalidateLayout() {
+		layout_version++;
+		layout_valid = false;
+		layout_dirty_nodes.clear();
+	}
+
+	/* Give "node" a slot of tidy_layout, preferring the slot of a deleted node */
+	private void assignSlot(Node node) {
+		int slot = (free_slot_count > 0) ? free_slots[--free_slot_count] : next_slot++;
+		tidy_layout.ensureCapacity(slot + 1);
+		node.setIdx(slot);
+	}
+
+	/* Free the slot of the deleted "node" */
+	private void releaseSlot(Node node) {
+		if (layout_valid && node.getIdx() >= 0) {
+			if (free_slot_count == free_slots.length)
+				free_slots = Arrays.copyOf(free_slots, free_slot_count * 2);
+			free_slots[free_slot_count++] = node.getIdx();
+		}
+		node.setIdx(-1);
+	}
+
+	/* Whether the node positions are older than the tree, i.e. a layout is due or running */
+	public boolean isLayoutStale() {
+		return laid_out_version != layout_version;
+	}
+
+	/*
+	 * Lay out the tree on the calling thread once anything moved since the last layout. The first layout, and the first one
+	 * after the content was replaced, places every node with TidyLayout in O(n) time. After that only the nodes whose
+	 * children changed and their ancestors are placed again (updateChangedLayout()), so an insert or delete costs the contour
+	 * walks along its path. With background layout enabled, showTree() uses requestLayout() instead and this is only needed
+	 * by callers that want the positions now.
+	 */
+	void updateLayout() {
+		if (!isLayoutStale())
+			return;
+		if (layout_valid) {
+			updateChangedLayout();
+			return;
+		}
+
+		boolean measure = TreeMetrics.enabled;
+		long start = measure ? System.nanoTime() : 0;
+		LayoutSnapshot snapshot = new LayoutSnapshot(LayoutSnapshot.capture(root, size(), layout_version), tidy_layout);
+		if (measure)
+			TreeMetrics.layout_nanos.record(System.nanoTime() - start);
+		applyLayout(snapshot);
+	}
+
+	/*
+	 * Bring the layout up to date without blocking the calling thread for long. Changes to a laid out tree are placed
+	 * incrementally right here, which costs about as much as the changes themselves. A whole layout (the first one, and after
+	 * the content was replaced) is started on the background thread instead, unless one is running already; only the capture
+	 * of the tree shape runs here, and the result comes back through Platform.runLater() to layoutFinished().
+	 */
+	private void requestLayout() {
+		if (!isLayoutStale())
+			return;
+		if (layout_valid) {
+			updateChangedLayout();
+			return;
+		}
+		if (layout_running)
+			return;
+		layout_running = true;
+
+		final LayoutSnapshot.Structure structure = LayoutSnapshot.capture(root, size(), layout_version);
+		if (layout_executor == null) {
+			layout_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "tree-layout");
+					thread.setDaemon(true); //never keeps the application alive
+					return thread;
+				}
+			});
+		}
+		final double separation = tidy_layout.getSeparation();
+		layout_executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				boolean measure = TreeMetrics.enabled;
+				long start = measure ? System.nanoTime() : 0;
+				final LayoutSnapshot snapshot = new LayoutSnapshot(structure, new TidyLayout(separation));
+				if (measure)
+					TreeMetrics.layout_nanos.record(System.nanoTime() - start);
+
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						layoutFinished(snapshot);
+					}
+				});
+			}
+		});
+	}
+
+	/* Take a background layout on the JavaFX thread: draw it if the tree did not change since its capture, else start anew */
+	private void layoutFinished(LayoutSnapshot snapshot) {
+		layout_running = false;
+		if (snapshot.getVersion() != layout_version) {
+			requestLayout(); //the nodes of a stale snapshot may be deleted or moved, so it is dropped as a whole
+			return;
+		}
+		applyLayout(snapshot);
+		repaintDirtyRegions();
+	}
+
+	/*
+	 * Move the nodes to the positions of "snapshot", which must match the current tree version, and keep its TidyLayout for
+	 * the incremental layouts that follow. Every node gets its offset from its parent, which also drops offsets left by
+	 * dragging. Only nodes that end up at a new place on canvas are moved, so the dirty regions of the next repaint cover
+	 * just the part of the drawing that changed.
+	 */
+	private void applyLayout(LayoutSnapshot snapshot) {
+		tidy_layout = snapshot.getLayout();
+		layout_valid = true;
+		layout_dirty_nodes.clear();
+		next_slot = snapshot.size();
+		free_slot_count = 0;
+
+		//Post-order backwards visits every parent before its children
+		for (int i = snapshot.size() - 1; i >= 0; i--) {
+			Node node = snapshot.getNode(i);
+			Node parent = node.getParent();
+			if (parent == null)
+				node.setOffset(root_x, root_y);
+			else
+				node.setOffset(tidy_layout.getOffset(i), radius * 2);
+			double x = (parent == null) ? root_x : parent.getX() + node.getOffset_x();
+			double y = (parent == null) ? root_y : parent.getY() + node.getOffset_y();
+			if (!node.isPlaced() || node.getX() != x || node.getY() != y)
+				node.moveTo(x, y);
+		}
+		layoutUpdated(snapshot.getVersion());
+	}
+
+	/*
+	 * Place the nodes whose children changed since the last layout, and their ancestors, again, and move what moved on canvas.
+	 * The dirty nodes and their ancestors are stamped first (stopping at nodes already stamped), as in updateBounds(); then
+	 * a post-order walk through the stamped nodes places them children first, and a pre-order walk gives them and their
+	 * unchanged children the new offsets. Every other sub-tree keeps its placement in tidy_layout, so an insert or delete
+	 * costs the contour walks of the O(log n) nodes on its path, O(log^2 n) at most, instead of a layout of the whole tree.
+	 */
+	private void updateChangedLayout() {
+		boolean measure = TreeMetrics.enabled;
+		long start = measure ? System.nanoTime() : 0;
+
+		layout_pass++;
+		for (Node node : layout_dirty_nodes) {
+			if (node != root && node.getParent() == null)
+				continue; //deleted in the meantime
+			while (node != null && node.getLayout_pass() != layout_pass) {
+				node.setLayout_pass(layout_pass);
+				node = node.getParent();
+			}
+		}
+		layout_dirty_nodes.clear();
+
+		if (root != null && root.getLayout_pass() == layout_pass) {
+			placeStampedNodes();
+			moveStampedNodes();
+		}
+		if (measure)
+			TreeMetrics.layout_nanos.record(System.nanoTime() - start);
+		layoutUpdated(layout_version);
+	}
+
+	private boolean isLayoutStamped(Node node) {
+		return node != null && node.getLayout_pass() == layout_pass;
+	}
+
+	/* Place the stamped nodes again in post-order, so that the children of a node are placed before it */
+	private void placeStampedNodes() {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node current_node = root;
+		Node last_visited = null;
+		while (current_node != null || !stack.isEmpty()) {
+			if (current_node != null) {
+				stack.push(current_node);
+				current_node = isLayoutStamped(current_node.getLeft()) ? current_node.getLeft() : null;
+			} else {
+				Node top = stack.peek();
+				if (isLayoutStamped(top.getRight()) && top.getRight() != last_visited) {
+					current_node = top.getRight();
+				} else {
+					if (top.getIdx() < 0)
+						assignSlot(top); //inserted since the last layout
+					tidy_layout.setChildren(top.getIdx(), slotOf(top.getLeft()), slotOf(top.getRight()));
+					tidy_layout.place(top.getIdx());
+					last_visited = stack.pop();
+				}
+			}
+		}
+	}
+
+	private static int slotOf(Node node) {
+		return (node != null) ? node.getIdx() : -1;
+	}
+
+	/*
+	 * Give the stamped nodes and their other children the offsets of tidy_layout, parents first. A stamped node is moved if
+	 * its place on canvas changed; an unchanged sub-tree below a stamped node moves as a whole, so its box is redrawn at the
+	 * old and the new place, as for a dragged sub-tree.
+	 */
+	private void moveStampedNodes() {
+		updateBounds(); //the boxes of the unchanged sub-trees must be exact before they are marked
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			Node parent = node.getParent();
+			if (parent == null)
+				node.setOffset(root_x, root_y);
+			else
+				node.setOffset(tidy_layout.getOffset(node.getIdx()), radius * 2);
+			double x = (parent == null) ? root_x : parent.getX() + node.getOffset_x();
+			double y = (parent == null) ? root_y : parent.getY() + node.getOffset_y();
+			if (!node.isPlaced() || node.getX() != x || node.getY() != y)
+				node.moveTo(x, y);
+			else
+				markBoundsDirty(node); //its children may have changed
+
+			moveChild(node.getLeft(), stack);
+			moveChild(node.getRight(), stack);
+		}
+	}
+
+	/* Queue "child" if it is stamped, else move its unchanged sub-tree to the offset of tidy_layout if that is a new place */
+	private void moveChild(Node child, ArrayDeque<Node> stack) {
+		if (child == null)
+			return;
+		if (isLayoutStamped(child)) {
+			stack.push(child);
+			return;
+		}
+
+		Node parent = child.getParent();
+		double offset_x = tidy_layout.getOffset(child.getIdx());
+		double offset_y = radius * 2;
+		if (child.isPlaced() && child.getOffset_x() == offset_x && child.getOffset_y() == offset_y
+				&& child.getX() == parent.getX() + offset_x && child.getY() == parent.getY() + offset_y)
+			return;
+		markSubTreeRegionDirty(child); //clear the old place
+		child.setOffset(offset_x, offset_y);
+		child.resolvePosition();
+		markSubTreeRegionDirty(child); //draw at the new place
+		markBoundsDirty(parent);
+	}
+
+	/* Take over the extent of the tree from the layout of "version", and bring the metrics and the view up to date */
+	private void layoutUpdated(long version) {
+		if (root == null) {
+			layout_min_x = 0;
+			layout_max_x = 0;
+			layout_max_depth = 0;
+		} else {
+			layout_min_x = tidy_layout.getMin_x(root.getIdx());
+			layout_max_x = tidy_layout.getMax_x(root.getIdx());
+			layout_max_depth = tidy_layout.getHeight(root.getIdx());
+		}
+		layout_height = (root == null) ? 0 : layout_max_depth + 1;
+		layout_black_height = blackHeight(); //O(log n), only the leftmost path
+		laid_out_version = version;
+		dragged_nodes.clear(); //the layout put them back
+		TreeMetrics.publishShape(this, size(), layout_height, layout_black_height);
+
+		if (fit_to_view)
+			fitView(false);
+	}
+
+	/*
+	 * Compute whole layouts on a background thread instead of the calling one. showTree() then only starts such a layout,
+	 * and the JavaFX thread copies the finished positions and draws, so loading a large tree does not block input handling.
+	 * Single changes are still placed on the calling thread, as that only costs the walk along their path. Needs a running
+	 * JavaFX toolkit; off by default so that trees on offscreen canvases are laid out synchronously.
+	 */
+	public void setBackgroundLayout(boolean background_layout) {
+		this.background_layout = background_layout;
+	}
+
+	public boolean isBackgroundLayout() {
+		return background_layout;
 	}
 
-        private void setNewProp(Node node){
-            setNewNodeProperties(node);
-            if(node.getLeft()!= null) setNewProp(node.getLeft());
-            if(node.getRight()!= null) setNewProp(node.getRight());
-        }
-        
 	// Draw the tree on canvas
 	public void showTree(boolean insertion_occur) {
-		
-	
+
+
 		if(insertion_occur)
 		{
-			//Set the basic properties for then new node
-			setNewProp(root);
+			//Lay out the tree again if the last operations moved any node
+			if (background_layout)
+				requestLayout();
+			else
+				updateLayout();
 		}
-		
-		// Traverse the tree and draw all the nodes onto canvas
-		bfsTreeDraw(this);
-		
+
+		// Redraw the parts of the canvas that changed since the last drawing
+		repaintDirtyRegions();
+
 
 	}
 
 	
-	/*For mouse dragging use (update the sub-tree)*/
-	private void updateTreePos(Node moving_node, double delta_x, double delta_y) {
-		
-		Queue<Node> queue = new LinkedList<Node>();
-		Node current_node;
-		
-		queue.add(moving_node); // push the root node into queue
-		while (!queue.isEmpty()) {
-			current_node = queue.remove();
-		
-			// Check left child
-			if (current_node.getLeft() != null) {
-				Point2D pos = new Point2D(current_node.getLeft().getPosition().getX() + delta_x, current_node.getLeft().getPosition().getY() + delta_y);
-				current_node.getLeft().setPosition(pos);
-				queue.add(current_node.getLeft());
-				
+	/*
+	 * Lay out and redraw the tree on the next JavaFX frame instead of now. Any number of changes and calls before that frame
+	 * share one layout and one repaint, so a batch of inserts costs about as much as the tree operations themselves.
+	 */
+	public void showTreeLater() {
+		if (redraw_pending)
+			return;
+		redraw_pending = true;
+
+		if (redraw_timer == null) {
+			redraw_timer = new AnimationTimer() {
+				@Override
+				public void handle(long now) {
+					stop();
+					redraw_pending = false;
+					showTree(true);
+				}
+			};
+		}
+		redraw_timer.start();
+	}
+
+	
+	/* Remember that the sub-tree box of "node" and of all its ancestors has to be recomputed before the next drawing */
+	void markBoundsDirty(Node node) {
+		if (gc != null && !parallel_change)
+			bounds_dirty_nodes.add(node);
+	}
+
+	/*
+	 * Recompute the sub-tree boxes that changed. The dirty nodes and their ancestors are stamped first (stopping at nodes
+	 * already stamped), then one post-order walk that only enters stamped nodes updates them children first, so the cost is
+	 * proportional to the number of changed boxes rather than to the size of the tree.
+	 */
+	private void updateBounds() {
+		if (bounds_dirty_nodes.isEmpty())
+			return;
+
+		bounds_pass++;
+		for (Node node : bounds_dirty_nodes) {
+			if (node != root && node.getParent() == null)
+				continue; //deleted in the meantime
+			while (node != null && node.getBounds_pass() != bounds_pass) {
+				node.setBounds_pass(bounds_pass);
+				node = node.getParent();
 			}
+		}
+		bounds_dirty_nodes.clear();
 
-			// Check right child
-			if (current_node.getRight() != null) {
-				Point2D pos = new Point2D(current_node.getRight().getPosition().getX() + delta_x, current_node.getRight().getPosition().getY() + delta_y);
-				current_node.getRight().setPosition(pos);
-				queue.add(current_node.getRight());
-				
+		if (root == null || root.getBounds_pass() != bounds_pass)
+			return;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node current_node = root;
+		Node last_visited = null;
+		while (current_node != null || !stack.isEmpty()) {
+			if (current_node != null) {
+				stack.push(current_node);
+				current_node = isBoundsStale(current_node.getLeft()) ? current_node.getLeft() : null;
+			} else {
+				Node top = stack.peek();
+				if (isBoundsStale(top.getRight()) && top.getRight() != last_visited) {
+					current_node = top.getRight();
+				} else {
+					top.updateSubtreeBounds();
+					last_visited = stack.pop();
+				}
 			}
 		}
+	}
 
+	private boolean isBoundsStale(Node node) {
+		return node != null && node.getBounds_pass() == bounds_pass;
 	}
-	
-	/* Apply Breath First Search Tree to render all the node */
-	private void bfsTreeDraw(Tree tree) {
+
+	/* Check whether the canvas box (min_x, min_y)-(max_x, max_y) is at least partly inside the viewport */
+	private boolean isVisible(double min_x, double min_y, double max_x, double max_y) {
+		double margin = dirty_margin; //the selection ring is drawn outside the node box
+		return max_x + margin >= view_x && min_x - margin <= view_x + canvas_width / view_scale
+				&& max_y + margin >= view_y && min_y - margin <= view_y + canvas_height / view_scale;
+	}
+
+	/* Check whether any node or edge of the sub-tree of "node" can show up in the viewport and needs drawing */
+	private boolean isSubTreeVisible(Node node, boolean draw_all) {
+		double min_x = node.getSubtree_min_x();
+		double min_y = node.getSubtree_min_y();
+		double max_x = node.getSubtree_max_x();
+		double max_y = node.getSubtree_max_y();
+		if (!isVisible(min_x, min_y, max_x, max_y))
+			return false;
+		if (draw_all)
+			return true;
+
+		for (BoundingBox region : dirty_regions) {
+			if (region.intersects(min_x, min_y, max_x - min_x, max_y - min_y))
+				return true;
+		}
+		return false;
+	}
+
+	/* Check whether the edge (or node, if a == b) between "a" and "b" is in the viewport */
+	private boolean isVisible(Node a, Node b) {
+		return isVisible(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()), Math.max(a.getX(), b.getX()) + radius,
+				Math.max(a.getY(), b.getY()) + radius);
+	}
+
+	/* Zoom by "factor" around the viewport point (x, y), which keeps showing the same place of the tree */
+	public void zoom(double factor, double x, double y) {
+		double new_scale = Math.max(min_scale, Math.min(max_scale, view_scale * factor));
+		view_x += x / view_scale - x / new_scale;
+		view_y += y / view_scale - y / new_scale;
+		view_scale = new_scale;
+		fit_to_view = false;
+		repaintAll();
+		repaintDirtyRegions();
+	}
+
+	/* Move the viewport so that the tree follows a mouse movement of (delta_x, delta_y) viewport pixels */
+	public void pan(double delta_x, double delta_y) {
+		view_x -= delta_x / view_scale;
+		view_y -= delta_y / view_scale;
+		fit_to_view = false;
+		repaintAll();
+		repaintDirtyRegions();
+	}
+
+	/* Go back to a view of the whole tree, which then follows the tree again until the next zoom or pan */
+	public void resetView() {
+		fit_to_view = true;
+		fitView(true);
+		repaintAll();
+		repaintDirtyRegions();
+	}
+
+	/*
+	 * Scale the viewport so that the extent of the last layout fits on the canvas, but never above the natural size, and
+	 * center the tree horizontally. Unless "force" is set, the view is kept while the tree still fits and fills more than
+	 * half of it in one direction, so the canvas is only redrawn as a whole when the tree outgrew the view or shrank well
+	 * inside it, and a single insert normally repaints just its dirty regions.
+	 */
+	private void fitView(boolean force) {
+		double margin = radius;
+		double min_x = root_x + layout_min_x - margin;
+		double max_x = root_x + layout_max_x + radius + margin;
+		double max_y = root_y + layout_max_depth * radius * 2 + radius + margin;
+		double view_width = canvas_width / view_scale;
+		double view_height = canvas_height / view_scale;
+		if (!force) {
+			boolean fits = min_x >= view_x && max_x <= view_x + view_width && view_y == 0 && max_y <= view_height;
+			boolean too_small = view_scale < 1 && (max_x - min_x) * 2 < view_width && max_y * 2 < view_height;
+			if (fits && !too_small)
+				return;
+		}
+
+		view_scale = Math.max(min_scale, Math.min(1, Math.min(canvas_width / (max_x - min_x), canvas_height / max_y)));
+		view_x = (min_x + max_x) / 2 - canvas_width / view_scale / 2;
+		view_y = 0;
+		repaintAll();
+	}
+
+	/* Follow a new canvas size, e.g. when the window is resized */
+	public void setViewportSize(double width, double height) {
+		canvas_width = (int) Math.ceil(width);
+		canvas_height = (int) Math.ceil(height);
+		if (fit_to_view)
+			fitView(true);
+		repaintAll();
+		repaintDirtyRegions();
+	}
+
+	/* Convert a viewport position, like the one of a mouse event, into canvas coordinates of the tree */
+	private double toTreeX(double x) {
+		return view_x + x / view_scale;
+	}
+
+	private double toTreeY(double y) {
+		return view_y + y / view_scale;
+	}
+
+	public double getView_x() {
+		return view_x;
+	}
+
+	public double getView_y() {
+		return view_y;
+	}
+
+	public double getView_scale() {
+		return view_scale;
+	}
+
+	/*
+	 * Apply Breath First Search Tree to render the nodes and edges that intersect the dirty regions (every node if "draw_all").
+	 * The edges to the children are drawn before the node itself, and the children are drawn after them, so every node is
+	 * drawn exactly once on top of its edges. Positions are stored relative to the parent, so every node reached is first
+	 * resolved to its place on canvas from its parent's place.
+	 */
+	private void bfsTreeDraw(Tree tree, boolean draw_all) {
 		Queue<Node> queue; // store the retrieved nodes from edges
 		Node current_node; // point to the current node processing on
 
@@ -186,175 +689,336 @@ public class Tree {
 			return;
 		}
 
+		//Sub-trees whose box is outside the viewport (or outside every dirty region) are skipped as a whole
+		updateBounds();
+		if (draw_all)
+			prepareScreenCells();
+		tree.getRoot().resolvePosition();
+		if (!isSubTreeVisible(tree.getRoot(), draw_all))
+			return;
+
 		queue = new LinkedList<Node>();
+		gc.setStroke(Color.BLACK);
 
-		queue.add(tree.getRoot()); // push the root node into queue
+		queueOrSummarize(tree.getRoot(), queue); // push the root node into queue
 		while (!queue.isEmpty()) {
 			current_node = queue.remove();
-			current_node.showNode(select_node_value); // draw the node on the canvas
 		
 			// Check left child
 			if (current_node.getLeft() != null) {
+				current_node.getLeft().resolvePosition();
 				
 				//Draw the edge between current node the the left child
-				double start_x = current_node.getPosition().getX() + radius / 2;
-				double start_y = current_node.getPosition().getY() + radius / 2;
-				double end_x = current_node.getLeft().getPosition().getX() + radius / 2;
-				double end_y = current_node.getLeft().getPosition().getY() + radius / 2;
-				
-				//Draw the edge
-				gc.setStroke(Color.BLACK);
-				gc.strokeLine(start_x, start_y, end_x, end_y);
+				if (isVisible(current_node, current_node.getLeft()) && (draw_all || isRegionDirty(current_node, current_node.getLeft())))
+					drawEdge(current_node, current_node.getLeft());
 				
-				//Show current node again to cover the edge
-				current_node.showNode(select_node_value); 
-				
-				queue.add(current_node.getLeft());
+				if (isSubTreeVisible(current_node.getLeft(), draw_all))
+					queueOrSummarize(current_node.getLeft(), queue);
 			}
 
 			// Check right child
 			if (current_node.getRight() != null) {
-				//Draw the edge between current node the the right child
-				double start_x = current_node.getPosition().getX() + radius / 2;
-				double start_y = current_node.getPosition().getY() + radius / 2;
-				double end_x = current_node.getRight().getPosition().getX() + radius / 2;
-				double end_y = current_node.getRight().getPosition().getY() + radius / 2;
-				
-				//Draw the edge
-				gc.setStroke(Color.BLACK);
-				gc.strokeLine(start_x, start_y, end_x, end_y);
+				current_node.getRight().resolvePosition();
 				
-				//Show current node again to cover the edge
-				current_node.showNode(select_node_value); 
+				//Draw the edge between current node the the right child
+				if (isVisible(current_node, current_node.getRight()) && (draw_all || isRegionDirty(current_node, current_node.getRight())))
+					drawEdge(current_node, current_node.getRight());
 				
-				queue.add(current_node.getRight());
+				if (isSubTreeVisible(current_node.getRight(), draw_all))
+					queueOrSummarize(current_node.getRight(), queue);
 			}
+			
+			if (isVisible(current_node, current_node) && (draw_all || isRegionDirty(current_node, current_node)))
+				current_node.showNode(select_node_value); // draw the node on the canvas (covers the edges)
+		}
+		lod_cells = null;
+
+	}
+	
+	/* Queue "node" for drawing, or draw its whole sub-tree as a summary if it is too small or too crowded on screen */
+	private void queueOrSummarize(Node node, Queue<Node> queue) {
+		int cell = screenCellOf(node);
+		if (isSummarized(node) || (cell >= 0 && lod_cells[cell] >= lod_cell_capacity)) {
+			drawSummary(node);
+		} else {
+			if (cell >= 0)
+				lod_cells[cell]++;
+			queue.add(node);
 		}
+	}
+
+	/*
+	 * Divide the viewport into cells of about one node size. During a full drawing each cell counts the nodes queued in it,
+	 * so that the number of nodes drawn is bounded by the number of cells even where the layout piles nodes on top of each
+	 * other.
+	 */
+	private void prepareScreenCells() {
+		summaries_drawn = false;
+		lod_cell_size = Math.max(radius * view_scale, lod_node_size);
+		lod_columns = (int) Math.ceil(canvas_width / lod_cell_size) + 1;
+		int rows = (int) Math.ceil(canvas_height / lod_cell_size) + 1;
+		lod_cells = new int[lod_columns * rows];
+	}
 
+	/* Return the screen cell of the center of "node", or -1 if it is off-screen or no full drawing is running */
+	private int screenCellOf(Node node) {
+		if (lod_cells == null)
+			return -1;
+		double x = (node.getX() + radius / 2 - view_x) * view_scale;
+		double y = (node.getY() + radius / 2 - view_y) * view_scale;
+		if (x < 0 || y < 0 || x >= canvas_width || y >= canvas_height)
+			return -1;
+		return (int) (y / lod_cell_size) * lod_columns + (int) (x / lod_cell_size);
 	}
 
-	/* Apply Breath First Search Tree to (1) find the parent of the target_node and setup connection between them (2) set the GUI properties for the node*/
-	private void setNewNodeProperties(Node target_node) {
-	 
-		Queue<Node> queue; // store the retrieved nodes from edges
-		Node current_node; // point to the current node processing on
-		layer_nodes.clear(); //clear all the layer
+	/* Check whether the nodes are too small on screen to be readable, so that small sub-trees are drawn as summaries */
+	private boolean isLevelOfDetailActive() {
+		return radius * view_scale < lod_node_size;
+	}
+
+	/* Check whether the nodes are too small to read and the sub-tree of "node" is smaller than lod_summary_size on screen */
+	private boolean isSummarized(Node node) {
+		if (!isLevelOfDetailActive())
+			return false;
+		double width = (node.getSubtree_max_x() - node.getSubtree_min_x()) * view_scale;
+		double height = (node.getSubtree_max_y() - node.getSubtree_min_y()) * view_scale;
+		return width < lod_summary_size && height < lod_summary_size;
+	}
+
+	/*
+	 * Draw the sub-tree of "node" as one box over its area, labelled with its node count, key range and black-height as far
+	 * as the box is big enough on screen. Only nodes with room on screen are expanded and every summary hangs below one of
+	 * them, so the number of shapes drawn grows with the viewport area instead of with the number of nodes.
+	 */
+	private void drawSummary(Node node) {
+		summaries_drawn = true;
+		double min_x = node.getSubtree_min_x();
+		double min_y = node.getSubtree_min_y();
+		double width = node.getSubtree_max_x() - min_x;
+		double height = node.getSubtree_max_y() - min_y;
+		double corner = radius / 2;
+
+		gc.setFill(Color.rgb(120, 120, 120, 0.35));
+		gc.fillRoundRect(min_x, min_y, width, height, corner, corner);
+		gc.setStroke(Color.DIMGRAY);
+		gc.strokeRect(min_x, min_y, width, height);
+		gc.setStroke(Color.BLACK);
+
+		//The text keeps a fixed size on screen, so it is only written when the lines fit into the box
+		double line_height = 11 / view_scale;
+		int lines = (int) (height / line_height);
+		if (lines < 1 || width * view_scale < 24)
+			return;
+
+		int black_height = 0;
+		for (Node current_node = node; current_node != null; current_node = current_node.getLeft()) {
+			if (current_node.getColor() == Node.BLACK)
+				black_height++;
+		}
+
+		String[] labels = { Integer.toString(node.getSubtree_size()),
+				node.getSubtree_min() + ".." + node.getSubtree_max(),
+				"bh " + black_height };
+		gc.setFill(Color.BLACK);
+		gc.setFont(Font.font("serif", 10 / view_scale));
+		gc.setTextAlign(TextAlignment.CENTER);
+		for (int i = 0; i < Math.min(lines, labels.length); i++)
+			gc.fillText(labels[i], min_x + width / 2, min_y + line_height * (i + 1) - 2 / view_scale);
+		gc.setTextAlign(TextAlignment.LEFT);
+	}
+
+	/* Draw the edge between the centers of "from" and "to" */
+	private void drawEdge(Node from, Node to) {
+		double start_x = from.getX() + radius / 2;
+		double start_y = from.getY() + radius / 2;
+		double end_x = to.getX() + radius / 2;
+		double end_y = to.getY() + radius / 2;
 		
-		if (target_node == root) {
+		gc.strokeLine(start_x, start_y, end_x, end_y);
+	}
+	
+	/* Mark the canvas area of "node" (with its selection ring) and of the edges to its parent and children as outdated */
+	void markNodeRegionDirty(Node node) {
+		if (gc == null || parallel_change || !node.isPlaced())
+			return;
 		
-			target_node.setDepth(0); //set the root depth to 0
-			target_node.setParent(null);
-			Point2D pos = new Point2D(320, 5); // do the setting for the root
-			target_node.setPosition(pos);
-			target_node.setDepth(0);
-			
-			
-			Vector<Node> layer = new Vector<Node>();
-			layer.add(target_node);
-			layer_nodes.add(layer);
-			target_node.setLayer_idx(0);
-			
+		addDirtyRegion(node, node);
+		if (node.getParent() != null)
+			addDirtyRegion(node, node.getParent());
+		if (node.getLeft() != null)
+			addDirtyRegion(node, node.getLeft());
+		if (node.getRight() != null)
+			addDirtyRegion(node, node.getRight());
+	}
+	
+	/* Mark the canvas area of the whole sub-tree of "node" and of the edge to its parent as outdated */
+	private void markSubTreeRegionDirty(Node node) {
+		if (gc == null || !node.isPlaced())
 			return;
-		}
 		
+		addDirtyRegion(node.getSubtree_min_x(), node.getSubtree_min_y(), node.getSubtree_max_x(), node.getSubtree_max_y());
+		if (node.getParent() != null)
+			addDirtyRegion(node, node.getParent());
+	}
 	
-		//Start the BFS search
-		queue = new LinkedList<Node>();
-		queue.add(getRoot()); // push the root node into queue	
+	/* Add the box covering the nodes "a" and "b" (and so the edge between them) to the dirty regions */
+	private void addDirtyRegion(Node a, Node b) {
+		if (!b.isPlaced())
+			return;
+		
+		addDirtyRegion(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()), Math.max(a.getX(), b.getX()) + radius,
+				Math.max(a.getY(), b.getY()) + radius);
+	}
 	
+	/* Add the canvas box (min_x, min_y)-(max_x, max_y), widened by the margin for the selection ring, to the dirty regions */
+	private void addDirtyRegion(double min_x, double min_y, double max_x, double max_y) {
+		if (repaint_all)
+			return;
 		
-		while (!queue.isEmpty()) {
-			current_node = queue.remove();
-			
-			/* If current node is in a new layer, then create a new layer */
-			if(layer_nodes.size() - 1 < current_node.getDepth())
-			{
-				Vector<Node> layer = new Vector<Node>();
-				layer.add(current_node);
-				layer_nodes.add(layer);
-				current_node.setLayer_idx(0);
-			}
-			else
-			{
-				layer_nodes.get(current_node.getDepth()).add(current_node);
-				current_node.setLayer_idx(layer_nodes.get(current_node.getDepth()).size() - 1);
-			}
-			
-			if (current_node.getLeft() == target_node) {
-
-				/*Set the depth and parent information*/
-				target_node.setDepth(current_node.getDepth() + 1);
-				target_node.setParent(current_node);
-				target_node.setLeft_child_of_parent(true);	
-			}
-			else if(current_node.getRight() == target_node)
-			{
-				/*Set the depth and parent information*/
-				target_node.setDepth(current_node.getDepth() + 1);
-				target_node.setParent(current_node);
-				target_node.setLeft_child_of_parent(false);
-				
+		min_x -= dirty_margin;
+		min_y -= dirty_margin;
+		max_x += dirty_margin;
+		max_y += dirty_margin;
+		
+		//Too many small regions cost more to test than they save, so merge them into one box
+		if (dirty_regions.size() >= max_dirty_regions) {
+			for (BoundingBox region : dirty_regions) {
+				min_x = Math.min(min_x, region.getMinX());
+				min_y = Math.min(min_y, region.getMinY());
+				max_x = Math.max(max_x, region.getMaxX());
+				max_y = Math.max(max_y, region.getMaxY());
 			}
-			
-			/*If the current node does not have the target node as one of its children, then keep finding it*/
-			if (current_node.getLeft() != null)
-				queue.add(current_node.getLeft());
-			if (current_node.getRight() != null)
-				queue.add(current_node.getRight());
-			
+			dirty_regions.clear();
 		}
 		
-
-		/*Set the 2D position on Canvas*/
-		setNodePosition(target_node);
+		dirty_regions.add(new BoundingBox(min_x, min_y, max_x - min_x, max_y - min_y));
 	}
 	
-	/*Set the target_node position. This new node may affect the other node's current positions*/
-	void setNodePosition(Node target_node)
-	{
-		double x_left_offset = -(double)radius * 6.0 / (double) target_node.getDepth() + 2.0; // the left child x relative position to the current node's x position (maximum offset)
-		double x_right_offset = (double)radius * 6.0 / (double) target_node.getDepth() + 2.0; 
-		int y_offset = radius * 2; // the left child x position relative (maximum offset)
-		
-		//Below are the two indicator whether need to adjust the tree size
-		boolean layer_crowded = false;
-		boolean tree_too_high = false;
+	/* Check whether the box covering the nodes "a" and "b" intersects any dirty region */
+	private boolean isRegionDirty(Node a, Node b) {
+		double min_x = Math.min(a.getX(), b.getX());
+		double min_y = Math.min(a.getY(), b.getY());
+		double width = Math.abs(a.getX() - b.getX()) + radius;
+		double height = Math.abs(a.getY() - b.getY()) + radius;
 		
-	
-		//Set position for the target_node
-		Point2D pos = new Point2D(0,0); //the position will be assigned to the target_node
-		if(target_node.isLeft_child_of_parent())
-		{
-			pos = new Point2D(target_node.getParent().getPosition().getX() + x_left_offset, target_node.getParent().getPosition().getY() + y_offset);
+		for (BoundingBox region : dirty_regions) {
+			if (region.intersects(min_x, min_y, width, height))
+				return true;
 		}
-		else
-		{
-			pos = new Point2D(target_node.getParent().getPosition().getX() + x_right_offset, target_node.getParent().getPosition().getY() + y_offset);
+		return false;
+	}
+	
+	/*
+	 * Clear and redraw only the dirty regions of the canvas (the whole canvas after repaintAll()). The tree is drawn in its
+	 * own coordinates through the viewport transform, so the dirty regions and node positions need no conversion.
+	 */
+	private void repaintDirtyRegions() {
+		//The new structure cannot be drawn before its layout is done; the old drawing stays until then
+		if (isLayoutStale())
+			return;
+		//A summary changes with any node inside it, and with summaries a full drawing is bounded by the viewport anyway
+		if (!dirty_regions.isEmpty() && (summaries_drawn || isLevelOfDetailActive()))
+			repaintAll();
+		if (!repaint_all && dirty_regions.isEmpty())
+			return;
+		
+		boolean measure = TreeMetrics.enabled;
+		long start = measure ? System.nanoTime() : 0;
+		long start_bytes = measure ? TreeMetrics.allocatedBytes() : 0;
+		
+		if (repaint_all) {
+			gc.clearRect(0, 0, canvas_width, canvas_height);
+			gc.save();
+			gc.scale(view_scale, view_scale);
+			gc.translate(-view_x, -view_y);
+			bfsTreeDraw(this, true);
+			gc.restore();
+		} else if (!dirty_regions.isEmpty()) {
+			gc.save();
+			gc.scale(view_scale, view_scale);
+			gc.translate(-view_x, -view_y);
+			gc.beginPath();
+			for (BoundingBox region : dirty_regions)
+				gc.rect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+			gc.clip();
+			for (BoundingBox region : dirty_regions)
+				gc.clearRect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+			
+			bfsTreeDraw(this, false);
+			gc.restore();
 		}
-		target_node.setPosition(pos);
 		
+		repaint_all = false;
+		dirty_regions.clear();
 		
-		//Check this new node has overlapping with its left or right neighbors
-		if(target_node.getLayer_idx() > 0) //check overlapping with left neighbor
-		{
-			int left_neighbor = target_node.getLayer_idx() - 1;
-			Point2D left_pos = layer_nodes.get(target_node.getDepth()).get(left_neighbor).getPosition();
-			if(pos.getX() - left_pos.getX() < radius)
-			{
-				layer_crowded = true;
-				System.out.println("Overlapping with left! " + layer_nodes.get(target_node.getDepth()).get(left_neighbor).getValue());
-			}
+		if (measure) {
+			TreeMetrics.frame_nanos.record(System.nanoTime() - start);
+			if (start_bytes >= 0)
+				TreeMetrics.frame_allocated_bytes.record(TreeMetrics.allocatedBytes() - start_bytes);
 		}
-
-
+		if (metrics_overlay)
+			drawMetricsOverlay();
+	}
+	
+	/* Draw the current metrics in the top left corner of the viewport, over the tree */
+	private void drawMetricsOverlay() {
+		TreeMetrics metrics = TreeMetrics.get();
+		String[] lines = {
+				metrics.isEnabled() ? "metrics on" : "metrics off",
+				"inserts " + metrics.getInserts() + "   deletes " + metrics.getDeletes(),
+				String.format("comparisons/descent %.1f (max %d)", metrics.getMeanComparisonsPerDescent(), metrics.getMaxComparisonsPerDescent()),
+				String.format("rotations/insert %.2f   recolors/insert %.2f", metrics.getMeanRotationsPerInsert(), metrics.getMeanRecolorsPerInsert()),
+				"size " + size() + "   height " + layout_height + "   black-height " + layout_black_height,
+				String.format("layout %.0f us (p99 %d us)", metrics.getMeanLayoutMicros(), metrics.getP99LayoutMicros()),
+				String.format("frame %.0f us (p99 %d us)   %.0f bytes/frame", metrics.getMeanFrameMicros(), metrics.getP99FrameMicros(), metrics.getMeanAllocatedBytesPerFrame()) };
+		double line_height = 14;
 		
+		gc.setFill(Color.WHITE);
+		gc.fillRect(5, 5, 320, lines.length * line_height + 8);
+		gc.setStroke(Color.DIMGRAY);
+		gc.strokeRect(5, 5, 320, lines.length * line_height + 8);
+		gc.setFill(Color.BLACK);
+		gc.setFont(Font.font("monospace", 11));
+		for (int i = 0; i < lines.length; i++)
+			gc.fillText(lines[i], 10, 5 + line_height * (i + 1));
 	}
 	
+	/* Show or hide the metrics overlay; the metrics themselves are switched on and off in TreeMetrics */
+	public void setMetricsOverlay(boolean metrics_overlay) {
+		this.metrics_overlay = metrics_overlay;
+		repaintAll();
+		repaintDirtyRegions();
+	}
+	
+	public boolean isMetricsOverlay() {
+		return metrics_overlay;
+	}
+	
+	/* Forget all GUI data about the current nodes, e.g. before the whole tree is replaced */
+	private void resetGUIState() {
+		layout_version++; //results of running background layouts refer to the old nodes
+		laid_out_version = layout_version;
+		layout_valid = false; //the next layout places every node
+		layout_dirty_nodes.clear();
+		dragged_nodes.clear();
+		bounds_dirty_nodes.clear();
+		selected_node = null;
+		new_node = null;
+		dragging = false;
+		repaintAll();
+	}
 	
+	/* Make the next repaint clear and redraw the whole canvas */
+	public void repaintAll() {
+		repaint_all = true;
+		dirty_regions.clear();
+	}
+
 	/* Tracking the mouse event to see whether a node is being dragged. */
 	public void finishNodeDragging(double x, double y)
 	{
 		dragging = false;
+		panning = false;
 		delta_x = 0;
 		delta_y = 0;
 	}
@@ -362,35 +1026,26 @@ public class Tree {
 	/* Tracking the mouse event to see whether a node is being dragged. */
 	public void checkNodeDragging(double x, double y)
 	{
-		for(int j = 0; j < layer_nodes.size(); j++)
+		Node hit_node = findNodeAt(toTreeX(x), toTreeY(y)); //only the sub-trees whose layout box contains (x, y) are searched
+		if(hit_node != null)
 		{
-			for(int i = 0; i < layer_nodes.get(j).size(); i++)
-			{
-				double node_x = layer_nodes.get(j).get(i).getPosition().getX();
-				double node_y = layer_nodes.get(j).get(i).getPosition().getY();
-				if(((node_x + radius/2 - x) * (node_x  + radius/2 - x) + (node_y + radius/2 - y) * (node_y  + radius/2- y)) < radius * radius / 4)
-				{
-					dragging = true;
-					selected_node = layer_nodes.get(j).get(i);
-					old_dragging_x = x;
-					old_dragging_y = y;
-					select_node_value = selected_node.getValue();
-
-					gc.clearRect(0, 0, canvas_width, canvas_height);
-					bfsTreeDraw(this);
-					break;
-				}
-			}
-			if(dragging == true)
-				break;
+			dragging = true;
+			selected_node = hit_node;
+			markDragged(hit_node);
+			old_dragging_x = x;
+			old_dragging_y = y;
+			setSelect_node_value(selected_node.getValue());
+			repaintDirtyRegions();
 		}
 		
-		//update the selection
+		//update the selection; dragging the empty background moves the viewport
 		if(dragging == false)
 		{
-			select_node_value = -1;
-			gc.clearRect(0, 0, canvas_width, canvas_height);
-			bfsTreeDraw(this);
+			panning = true;
+			old_dragging_x = x;
+			old_dragging_y = y;
+			setSelect_node_value(-1);
+			repaintDirtyRegions();
 		}
 		
 	}
@@ -401,210 +1056,122 @@ public class Tree {
 		// update dragged node position
 		if (dragging == true) {
 
-			delta_x = x - old_dragging_x;
-			delta_y = y - old_dragging_y;
-			Point2D pos = new Point2D(selected_node.getPosition().getX() + delta_x, selected_node.getPosition().getY() + delta_y);
-			selected_node.setPosition(pos);
+			delta_x = (x - old_dragging_x) / view_scale;
+			delta_y = (y - old_dragging_y) / view_scale;
+			moveSubTree(selected_node, delta_x, delta_y);
+			old_dragging_x = x;
+			old_dragging_y = y;
+			repaintDirtyRegions();
+		} else if (panning) {
+			pan(x - old_dragging_x, y - old_dragging_y);
 			old_dragging_x = x;
 			old_dragging_y = y;
-			updateTreePos(selected_node, delta_x, delta_y);
-			gc.clearRect(0, 0, canvas_width, canvas_height);
-			bfsTreeDraw(this);
 		}
 
 	}
 	
-	/* Adjust the tree width according to the layer value*/
-	//layer_idx stores the layer index that has issue with the new node
-	void adjustTreeWidth(int layer_idx)
-	{
-		int x_left_offset = -radius * 3; // the left child x relative position to the current node's x position (maximum offset)
-		int x_right_offset = radius * 3;
-		int y_offset = radius * 2; // the left child x position relative (maximum offset)
-		
-		//Calculate the width of problem layer = # * (node size + node gap) 
-		int target_layer_width = layer_nodes.get(layer_idx).size() * radius * 2 + (layer_nodes.get(layer_idx).size() - 1) * x_right_offset * 2;
-		Point2D layer_center = new Point2D(canvas_width/2, new_node.getPosition().getY()); 
-		
-		
-		//If the problem layer width is smaller than the canvas width, then no need to adjust the node size but change the current layer's position
-		if(target_layer_width < canvas_width)
-		{
-			//If there are even number of nodes
-			if(layer_nodes.get(layer_idx).size() % 2 == 0)  
-			{
-				int left_node_besides_center = layer_nodes.get(layer_idx).size()/2;
-				int right_node_besides_center =  layer_nodes.get(layer_idx).size()/2 + 1;
-				System.out.println("center: " + layer_center.getX());
-				//Update the nodes positions on the left side
-				Point2D pos = new Point2D(layer_center.getX() + x_left_offset,  layer_center.getY());
-				System.out.println("left: " + pos.getX());
-				layer_nodes.get(layer_idx).get(left_node_besides_center).setPosition(pos);
-				for(int i = left_node_besides_center - 1; i >= 0; i--)
-				{
-					pos = new Point2D(layer_nodes.get(layer_idx).get(i + 1).getPosition().getX() + x_left_offset * 2, layer_center.getY());
-					layer_nodes.get(layer_idx).get(i).setPosition(pos);
-				}
-				
-				//Update the nodes positions on the left side
-				pos = new Point2D(layer_center.getX() + x_right_offset,  layer_center.getY());
-				System.out.println("Right: " + pos.getX());
-				layer_nodes.get(layer_idx).get(left_node_besides_center).setPosition(pos);
-				for(int i = right_node_besides_center + 1; i < layer_nodes.get(layer_idx).size(); i++)
-				{
-					pos = new Point2D(layer_nodes.get(layer_idx).get(i - 1).getPosition().getX() + x_right_offset * 2, layer_center.getY());
-					layer_nodes.get(layer_idx).get(i).setPosition(pos);
-				}
-				
-				
-			}
-			//If there are odd number of nodes
-			else
-			{
-				int node_at_center = (layer_nodes.get(layer_idx).size() + 1) /2;
-				
-				
-				Point2D pos = new Point2D(layer_center.getX(),  layer_center.getY());
-				layer_nodes.get(layer_idx).get(node_at_center).setPosition(pos);
-				
-				//Update the nodes positions on the left side
-				for(int i = node_at_center - 1; i >= 0; i--)
-				{
-					pos = new Point2D(layer_nodes.get(layer_idx).get(i + 1).getPosition().getX() + x_left_offset * 2, layer_center.getY());
-					layer_nodes.get(layer_idx).get(i).setPosition(pos);
-				}
-				
-				//Update the nodes positions on the left side
-				for(int i = node_at_center + 1; i < layer_nodes.get(layer_idx).size(); i++)
-				{
-					pos = new Point2D(layer_nodes.get(layer_idx).get(i - 1).getPosition().getX() + x_right_offset * 2, layer_center.getY());
-					layer_nodes.get(layer_idx).get(i).setPosition(pos);
-				}
-			}
-		}
-		
+	/*
+	 * Remember that "node" is moved away from its place, so that the next layout puts it back, and that findNodeAt() has to
+	 * search its sub-tree on its own until then
+	 */
+	private void markDragged(Node node) {
+		if (!layout_valid)
+			return;
+		layout_dirty_nodes.add(node);
+		if (node != root && !dragged_nodes.contains(node))
+			dragged_nodes.add(node);
+		dragged_nodes_resolved = false;
 	}
-
-	/* Apply Breath First Search Tree to set basic tree properties for each node: (left or right) parent, children, depth, push node to corresponding layer */
-	private void setBasicTreeProperties(Tree tree) {
+	
+	/*
+	 * Move "node" with its whole sub-tree by (delta_x, delta_y). Positions are relative to the parent, so only the offset of
+	 * "node" changes, whatever the size of the sub-tree; the descendants follow when the repaint resolves them. The redrawn
+	 * area is the sub-tree box before and after the move, and only the boxes of the ancestors have to be recomputed.
+	 */
+	private void moveSubTree(Node node, double delta_x, double delta_y) {
+		updateBounds(); //the sub-tree box must be exact before it is marked
+		markSubTreeRegionDirty(node); //clear the old place
+		node.moveBy(delta_x, delta_y);
+		dragged_nodes_resolved = false; //the dragged sub-trees below "node" moved as well
+		markSubTreeRegionDirty(node); //draw at the new place
+		if (node.getParent() != null)
+			markBoundsDirty(node.getParent());
+	}
+	
+	/*
+	 * Return the node whose circle contains the canvas point (x, y), the closest one if several overlap, or null if there is
+	 * none. The search only enters sub-trees whose box in tidy_layout contains the point and resolves the positions on its
+	 * way down. Those boxes leave out drags, so a dragged sub-tree is not entered from its parent; it is searched from its own
+	 * root instead, one of dragged_nodes. Their positions are resolved once after each drag, so every search costs O(log n)
+	 * plus one box test per sub-tree dragged since the last layout. The sub-tree boxes used for drawing would not do here:
+	 * they grow with every drag and end up containing the point for most of the tree.
+	 */
+	private Node findNodeAt(double x, double y) {
+		if (root == null || isLayoutStale() || !layout_valid)
+			return null;
 		
-		Queue<Node> queue; // store the retrieved nodes from edges
-		Node current_node; // point to the current node processing on
-
-		if (tree.getRoot() == null) {
-			return;
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		root.resolvePosition();
+		if (layoutBoxContains(root, x, y))
+			stack.push(root);
+		for (Node dragged_node : dragged_nodes) {
+			if (!dragged_nodes_resolved)
+				resolvePath(dragged_node);
+			if (layoutBoxContains(dragged_node, x, y))
+				stack.push(dragged_node);
 		}
-
-		tree.getRoot().setDepth(0); //set the root depth to 0
-		tree.getRoot().setParent(null);
+		dragged_nodes_resolved = true;
 		
-	
-		//Start the BFS search
-		queue = new LinkedList<Node>();
-		queue.add(tree.getRoot()); // push the root node into queue
-		while (!queue.isEmpty()) {
-			current_node = queue.remove();
-			
-			/* If current node is in a new layer, then create a new layer */
-			if(layer_nodes.size() - 1 < current_node.getDepth())
-			{
-				Vector<Node> layer = new Vector<Node>();
-				layer.add(current_node);
-				layer_nodes.add(layer);
-			}
-			else
-			{
-				layer_nodes.get(current_node.getDepth()).add(current_node);
+		Node result = null;
+		double best_distance = radius * radius / 4;
+		while (!stack.isEmpty()) {
+			Node current_node = stack.pop();
+			//(x, y) is compared with node centers, while positions are the top left corner of a node
+			double dx = current_node.getX() + radius / 2 - x;
+			double dy = current_node.getY() + radius / 2 - y;
+			double distance = dx * dx + dy * dy;
+			if (distance < best_distance) {
+				best_distance = distance;
+				result = current_node;
 			}
 			
-
-			// Check left child
-			if (current_node.getLeft() != null) {
-				current_node.getLeft().setParent(current_node); //let the left child point to the current node
-				current_node.getLeft().setLeft_child_of_parent(true); //let the left child have left parent
-				current_node.getLeft().setDepth(current_node.getDepth() + 1); //assign the depth to the left child
-				
-				queue.add(current_node.getLeft());
+			if (current_node.getLeft() != null && !isDragged(current_node.getLeft())) {
+				current_node.getLeft().resolvePosition();
+				if (layoutBoxContains(current_node.getLeft(), x, y))
+					stack.push(current_node.getLeft());
 			}
-
-			// Check right child
-			if (current_node.getRight() != null) {
-				current_node.getRight().setParent(current_node); //let the left child point to the current node
-				current_node.getRight().setLeft_child_of_parent(false); //let the left child have left parent
-				current_node.getRight().setDepth(current_node.getDepth() + 1); //assign the depth to the left child
-				queue.add(current_node.getRight());
+			if (current_node.getRight() != null && !isDragged(current_node.getRight())) {
+				current_node.getRight().resolvePosition();
+				if (layoutBoxContains(current_node.getRight(), x, y))
+					stack.push(current_node.getRight());
 			}
 		}
-
+		return result;
 	}
-	
-	/* Because of the position change of one layer of nodes, this information is propagated to other layers */
-	void changePropogation()
-	{
-
-		Node node = root; // node is just a temporary node holder
-
-		Point2D pos = new Point2D(320, 0); // do the setting for the root
-		root.setPosition(pos);
-		
-		
-		int x_left_offset = -radius * 3; // the left child x relative 
-													// position
-													// to the current node's x position (maximum offset)
-		int x_right_offset = radius * 3;
-		int y_offset = radius * 2; // the left child x position relative (maximum offset)
-		
-		/* Preset all the nodes' positions; some of them maybe changed later*/
-		for(int i = 1; i < layer_nodes.size(); i++)
-		{
-			for(int j = 0; j < layer_nodes.get(i).size(); j++)
-			{
-				if(layer_nodes.get(i).get(j).isLeft_child_of_parent())
-					pos = new Point2D(layer_nodes.get(i).get(j).getParent().getPosition().getX() + x_left_offset, layer_nodes.get(i).get(j).getParent().getPosition().getY() + y_offset);
-				else
-					pos = new Point2D(layer_nodes.get(i).get(j).getParent().getPosition().getX() + x_right_offset, layer_nodes.get(i).get(j).getParent().getPosition().getY() + y_offset);
-				
-				layer_nodes.get(i).get(j).setPosition(pos);
-			}
-		}
-		
-		
-		/*Traverse all the layers to see if any layer has node overlapping or out of the range issue */
-		for(int y = layer_nodes.size() - 1; y >= 0; y--) //start from the bottom layer
-		{
 
-			boolean width_issue = false;  //an indicator that the tree suffers width problem 
-			boolean height_issue = false; //an indicator the tree suffers height problem
-			
-			//Below is to process each layer
-			for(int x = 0; x < layer_nodes.get(y).size(); x++)
-			{
-				//If the tree is too wide
-				if(layer_nodes.get(y).get(x).getPosition().getX() < radius/2 || 
-						layer_nodes.get(y).get(x).getPosition().getX() > (canvas_width - radius/2))
-				{
-					width_issue = true;
-				}
-				
-				//If the tree is too high
-				else if(layer_nodes.get(y).get(x).getPosition().getY() > (canvas_height - radius/2))
-				{
-					
-				}
-				
-			}
-		}
-		
+	/* Check whether "node" is not at the offset tidy_layout gives it, i.e. it was dragged since the last layout */
+	private boolean isDragged(Node node) {
+		return node.getOffset_x() != tidy_layout.getOffset(node.getIdx()) || node.getOffset_y() != radius * 2;
 	}
-	
 
-	public Node getRoot() {
-		return root;
+	/* Check whether the canvas point (x, y) is inside the box tidy_layout gives the sub-tree of the resolved "node" */
+	private boolean layoutBoxContains(Node node, double x, double y) {
+		int slot = node.getIdx();
+		return x >= node.getX() + tidy_layout.getMin_x(slot) && x <= node.getX() + tidy_layout.getMax_x(slot) + radius
+				&& y >= node.getY() && y <= node.getY() + tidy_layout.getHeight(slot) * radius * 2 + radius;
 	}
 
-	public void setRoot(Node root) {
-		this.root = root;
+	/* Resolve the positions of "node" and its ancestors, root first */
+	private void resolvePath(Node node) {
+		ArrayDeque<Node> path = new ArrayDeque<Node>();
+		for (Node current_node = node; current_node != null; current_node = current_node.getParent())
+			path.push(current_node);
+		while (!path.isEmpty())
+			path.pop().resolvePosition();
 	}
+	
+
+	
 
 
 	public int getRadius() {
@@ -629,6 +1196,15 @@ public class Tree {
 	}
 
 	public void setSelect_node_value(int select_node_value) {
+		//Both the old and the new selected node have to be redrawn to move the selection ring
+		if (this.select_node_value != select_node_value) {
+			Node old_selected = find(this.select_node_value);
+			Node new_selected = find(select_node_value);
+			if (old_selected != null)
+				markNodeRegionDirty(old_selected);
+			if (new_selected != null)
+				markNodeRegionDirty(new_selected);
+		}
 		this.select_node_value = select_node_value;
 	}
 	
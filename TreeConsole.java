@@ -0,0 +1,78 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/*
+ * Command line front end of the tree without JavaFX, running on an IntTree. It reads one operation per line from stdin
+ * and writes one result per line to stdout:
+ *   insert <value>    -> true / false (false if the value already exists)
+ *   delete <value>    -> true / false (false if the value does not exist)
+ *   contains <value>  -> true / false
+ *   floor <value>     -> the largest value <= <value>, or "none"
+ *   ceiling <value>   -> the smallest value >= <value>, or "none"
+ *   size              -> the number of values
+ * Empty lines and lines starting with '#' are skipped.
+ */
+public class TreeConsole {
+
+	public static void main(String[] args) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+		IntTree tree = new IntTree();
+
+		String line;
+		int line_number = 0;
+		while ((line = in.readLine()) != null) {
+			line_number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] parts = line.split("\\s+");
+			try {
+				out.println(execute(tree, parts));
+			} catch (IllegalArgumentException e) { //includes NumberFormatException
+				out.flush();
+				System.err.println("line " + line_number + ": " + e.getMessage());
+			}
+		}
+
+		out.flush();
+	}
+
+	/* Run one operation on "tree" and return its result as text */
+	private static String execute(IntTree tree, String[] parts) {
+		String operation = parts[0].toLowerCase();
+
+		if (operation.equals("size"))
+			return Integer.toString(tree.size());
+
+		if (parts.length != 2)
+			throw new IllegalArgumentException("expected: " + operation + " <value>");
+		int value = Integer.parseInt(parts[1]);
+
+		switch (operation) {
+		case "insert":
+			return Boolean.toString(tree.insert(value));
+		case "delete":
+			return Boolean.toString(tree.delete(value));
+		case "contains":
+			return Boolean.toString(tree.contains(value));
+		case "floor":
+			return valueOrNone(tree.floor(value));
+		case "ceiling":
+			return valueOrNone(tree.ceiling(value));
+		default:
+			throw new IllegalArgumentException("unknown operation: " + operation);
+		}
+	}
+
+	private static String valueOrNone(IntTree.IntNode node) {
+		return node == null ? "none" : Integer.toString(node.getValue());
+	}
+}
@@ -0,0 +1,173 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * A binary snapshot of a red-black tree in a file. The nodes are stored in pre-order as fixed 8 byte records: the value,
+ * then the color in the top bit and the size of the left sub-tree in the other 31 bits. The left child of a record follows
+ * it directly and the right child follows the left sub-tree, so the exact shape and colors come back in one linear pass
+ * without any rebalancing, and a value can be searched in the records before any node is created.
+ *
+ * Layout (big endian):
+ *   int magic, int version, int count, int CRC32 of the records, then count records
+ */
+public class TreeFile {
+	public static final int MAGIC = 0x52425446; //"RBTF"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 8;
+	private static final int RED_BIT = 0x80000000; //color bit in the second int of a record
+	private static final int SIZE_MASK = 0x7fffffff; //left sub-tree size bits in the second int of a record
+
+	private final ByteBuffer records; //the records of the file, read into memory
+	private final int count;
+
+	private TreeFile(ByteBuffer records, int count) {
+		this.records = records;
+		this.count = count;
+	}
+
+	/*
+	 * Write the values, shape and colors of "tree" to "path", replacing the file if it exists. The data and the new directory
+	 * entry are on the disk when this returns, and the replacement is atomic.
+	 */
+	public static <N extends TreeNode<N>> void write(RedBlackTree<N> tree, Path path) throws IOException {
+		int count = tree.size();
+		ByteBuffer records = ByteBuffer.allocateDirect(count * RECORD_SIZE);
+		int written = writeRecords(tree.getRoot(), records, 0);
+		if (written != count)
+			throw new IllegalStateException("tree size " + count + " does not match its " + written + " nodes");
+
+		records.clear();
+		CRC32 checksum = new CRC32();
+		checksum.update(records);
+		records.clear();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt((int) checksum.getValue());
+		header.flip();
+
+		//Write a sibling file and move it over the snapshot, so a crash leaves either the old or the new file, never a mix
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining())
+				channel.write(header);
+			while (records.hasRemaining())
+				channel.write(records);
+			channel.force(true);
+		}
+		Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory(path.toAbsolutePath().getParent());
+	}
+
+	/* Flush the entries of "directory", so the moved file survives a crash; not every platform can open a directory for this */
+	private static void forceDirectory(Path directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return; //e.g. on Windows, where directories cannot be opened and the move is already durable
+		}
+		try (channel) {
+			channel.force(true);
+		}
+	}
+
+	/* Store the sub-tree of "node" in pre-order starting at record "index" and return the number of records written */
+	private static <N extends TreeNode<N>> int writeRecords(N node, ByteBuffer records, int index) {
+		if (node == null)
+			return 0;
+
+		int left_size = writeRecords(node.getLeft(), records, index + 1);
+		int right_size = writeRecords(node.getRight(), records, index + 1 + left_size);
+		records.putInt(index * RECORD_SIZE, node.getValue());
+		records.putInt(index * RECORD_SIZE + 4, (node.getColor() == TreeNode.RED ? RED_BIT : 0) | left_size);
+		return 1 + left_size + right_size;
+	}
+
+	/*
+	 * Read the snapshot at "path" and check its header and checksum. The file is closed when this returns; it is read rather
+	 * than mapped, because a mapping stays open until it is garbage collected, and on Windows a mapped file cannot be
+	 * replaced by the next write().
+	 */
+	public static TreeFile open(Path path) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException(path + " is too short for a tree file");
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(path + " is too large for a tree file");
+			buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException(path + " was truncated while reading");
+		}
+		buffer.order(ByteOrder.BIG_ENDIAN);
+
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException(path + " is not a tree file");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException(path + " has the unsupported version " + buffer.getInt(4));
+		int count = buffer.getInt(8);
+		if (count < 0 || buffer.capacity() != HEADER_SIZE + (long) count * RECORD_SIZE)
+			throw new IOException(path + " has the wrong size for " + count + " values");
+
+		buffer.position(HEADER_SIZE);
+		ByteBuffer records = buffer.slice();
+		CRC32 checksum = new CRC32();
+		checksum.update(records);
+		if ((int) checksum.getValue() != buffer.getInt(12))
+			throw new IOException(path + " is corrupted (checksum mismatch)");
+		records.clear();
+
+		return new TreeFile(records, count);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/* Check whether "value" is stored, searching the records directly */
+	public boolean contains(int value) {
+		int index = 0;
+		int size = count; //number of records in the sub-tree starting at index
+
+		while (size > 0) {
+			int key = keyAt(index);
+			if (value == key)
+				return true;
+			int left_size = leftSizeAt(index);
+			if (value < key) {
+				size = left_size;
+				index = index + 1;
+			} else {
+				size = size - 1 - left_size;
+				index = index + 1 + left_size;
+			}
+		}
+		return false;
+	}
+
+	public int keyAt(int index) {
+		return records.getInt(index * RECORD_SIZE);
+	}
+
+	public int colorAt(int index) {
+		return (records.getInt(index * RECORD_SIZE + 4) & RED_BIT) != 0 ? TreeNode.RED : TreeNode.BLACK;
+	}
+
+	public int leftSizeAt(int index) {
+		return records.getInt(index * RECORD_SIZE + 4) & SIZE_MASK;
+	}
+}
@@ -0,0 +1,313 @@
+package application;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Join-based set operations between two red-black trees (Blelloch, Ferizovic and Sun, "Just Join for Parallel Ordered
+ * Sets"). Everything is built on join(left, node, right), which links two trees and a middle node whose value lies between
+ * them in O(|black height difference|), and split(tree, value), which cuts a tree at a value in O(log n) using joins.
+ * union, intersection and difference expose the root of the other tree, split this tree at its value and recurse on the
+ * two halves as parallel fork-join tasks, then join the two results, which takes O(m log(n/m + 1)) work for trees of
+ * sizes m <= n.
+ *
+ * The nodes of the target tree are relinked in place, and nodes are created (with createNode()) only for the values of
+ * the other tree that end up in the result; the other tree is only read. Every part is a valid red-black tree whose black
+ * height is passed along with its root, so it never has to be measured. Aggregates (if enabled) are updated at every
+ * relinked node.
+ *
+ * Used by RedBlackTree.union(), intersect() and difference(); neither tree may be changed while they run. The workers call
+ * createNode() and setColor() of the target tree's nodes, so these must be safe off the owning thread while the tree is
+ * between parallelChangeStarted() and parallelChangeFinished() (Tree stops its GUI bookkeeping there).
+ */
+public class TreeJoin<N extends TreeNode<N>> {
+
+	/* The operations */
+	enum Operation {
+		UNION, INTERSECTION, DIFFERENCE
+	}
+
+	/* A valid red-black tree, possibly with a red root, and its black height */
+	static final class Part<N> {
+		final N root;
+		final int black_height;
+		int count; //values added (UNION) or found in both trees (INTERSECTION, DIFFERENCE) while building this part
+
+		Part(N root, int black_height) {
+			this.root = root;
+			this.black_height = black_height;
+		}
+	}
+
+	/* The result of split(): the values below and above the split value, and the node holding the value itself if any */
+	private static final class Split<N> {
+		final Part<N> left;
+		final N found;
+		final Part<N> right;
+
+		Split(Part<N> left, N found, Part<N> right) {
+			this.left = left;
+			this.found = found;
+			this.right = right;
+		}
+	}
+
+	private final RedBlackTree<N> tree; //the tree whose nodes are relinked and which creates the new nodes
+	private final boolean update_aggregates;
+	private final int split_depth; //recursion depth from which the sub-problems are solved without forking
+
+	TreeJoin(RedBlackTree<N> tree, boolean update_aggregates, ForkJoinPool pool) {
+		this.tree = tree;
+		this.update_aggregates = update_aggregates;
+		//Enough tasks for every worker to steal a few, as in TreeVerifier
+		this.split_depth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 3;
+	}
+
+	/* Run "operation" on the trees rooted at "root" (relinked) and "other_root" (only read) */
+	Part<N> run(ForkJoinPool pool, Operation operation, N root, N other_root) {
+		SetTask task = new SetTask(operation, new Part<N>(root, blackHeight(root)), other_root, blackHeight(other_root), 0);
+		return pool.invoke(task);
+	}
+
+	/* One step of a set operation, on a sub-tree of the target tree and a sub-tree of the other tree */
+	private final class SetTask extends RecursiveTask<Part<N>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Operation operation;
+		private final Part<N> part; //of the target tree
+		private final N other; //root of the sub-tree of the other tree
+		private final int other_black_height;
+		private final int recursion_depth;
+
+		SetTask(Operation operation, Part<N> part, N other, int other_black_height, int recursion_depth) {
+			this.operation = operation;
+			this.part = part;
+			this.other = other;
+			this.other_black_height = other_black_height;
+			this.recursion_depth = recursion_depth;
+		}
+
+		@Override
+		protected Part<N> compute() {
+			if (part.root == null) {
+				if (operation == Operation.UNION && other != null)
+					return copy(other, other_black_height);
+				return new Part<N>(null, 0);
+			}
+			if (other == null)
+				return operation == Operation.INTERSECTION ? new Part<N>(null, 0) : part;
+
+			//Cut the target tree at the value of the other root, then solve both halves
+			int child_black_height = other_black_height - (other.isRed() ? 0 : 1);
+			Split<N> split = split(part.root, part.black_height, other.getValue());
+			SetTask left_task = new SetTask(operation, split.left, other.getLeft(), child_black_height, recursion_depth + 1);
+			SetTask right_task = new SetTask(operation, split.right, other.getRight(), child_black_height, recursion_depth + 1);
+			Part<N> left;
+			Part<N> right;
+			if (recursion_depth < split_depth) {
+				left_task.fork();
+				right = right_task.compute();
+				left = left_task.join();
+			} else {
+				left = left_task.compute();
+				right = right_task.compute();
+			}
+
+			Part<N> result;
+			int count = left.count + right.count;
+			if (operation == Operation.UNION) {
+				N middle = split.found;
+				if (middle == null) {
+					middle = tree.createNode(other.getValue());
+					count++;
+				}
+				result = TreeJoin.this.join(left, middle, right);
+			} else if (operation == Operation.INTERSECTION && split.found != null) {
+				result = TreeJoin.this.join(left, split.found, right);
+				count++;
+			} else {
+				result = TreeJoin.this.join(left, right);
+				if (split.found != null)
+					count++;
+			}
+			result.count = count;
+			return result;
+		}
+	}
+
+	/* Copy the sub-tree of the other tree rooted at "node", keeping its shape and colors */
+	private Part<N> copy(N node, int black_height) {
+		Part<N> part = new Part<N>(copyNodes(node), black_height);
+		part.count = (update_aggregates && part.root != null) ? part.root.getSubtree_size() : countNodes(node);
+		return part;
+	}
+
+	private N copyNodes(N node) {
+		if (node == null)
+			return null;
+		N copy = tree.createNode(node.getValue());
+		copy.setColor(node.getColor());
+		link(copy, copyNodes(node.getLeft()), copyNodes(node.getRight()));
+		return copy;
+	}
+
+	private int countNodes(N node) {
+		return node == null ? 0 : 1 + countNodes(node.getLeft()) + countNodes(node.getRight());
+	}
+
+	/* Split the tree rooted at "node" into the values below and above "value" */
+	private Split<N> split(N node, int black_height, int value) {
+		if (node == null)
+			return new Split<N>(new Part<N>(null, 0), null, new Part<N>(null, 0));
+
+		N left = node.getLeft();
+		N right = node.getRight();
+		int child_black_height = black_height - (node.isRed() ? 0 : 1);
+
+		if (value == node.getValue())
+			return new Split<N>(new Part<N>(left, child_black_height), node, new Part<N>(right, child_black_height));
+		if (value < node.getValue()) {
+			Split<N> split = split(left, child_black_height, value);
+			return new Split<N>(split.left, split.found, join(split.right, node, new Part<N>(right, child_black_height)));
+		}
+		Split<N> split = split(right, child_black_height, value);
+		return new Split<N>(join(new Part<N>(left, child_black_height), node, split.left), split.found, split.right);
+	}
+
+	/* Join two trees whose values are all smaller, respectively larger, than the value of "middle" */
+	private Part<N> join(Part<N> left, N middle, Part<N> right) {
+		//Black roots keep the cases below simple; blackening a root only adds one to its black height
+		int left_black_height = blacken(left);
+		int right_black_height = blacken(right);
+
+		if (left_black_height > right_black_height) {
+			N root = joinRight(left.root, left_black_height, middle, right.root, right_black_height);
+			if (root.isRed() && root.getRight() != null && root.getRight().isRed()) {
+				root.setColor(TreeNode.BLACK);
+				return new Part<N>(root, left_black_height + 1);
+			}
+			return new Part<N>(root, left_black_height);
+		}
+		if (right_black_height > left_black_height) {
+			N root = joinLeft(left.root, left_black_height, middle, right.root, right_black_height);
+			if (root.isRed() && root.getLeft() != null && root.getLeft().isRed()) {
+				root.setColor(TreeNode.BLACK);
+				return new Part<N>(root, right_black_height + 1);
+			}
+			return new Part<N>(root, right_black_height);
+		}
+
+		middle.setColor(TreeNode.RED);
+		link(middle, left.root, right.root);
+		return new Part<N>(middle, left_black_height);
+	}
+
+	/* Join two trees whose values are all smaller, respectively larger, than the other's, without a middle value */
+	private Part<N> join(Part<N> left, Part<N> right) {
+		if (left.root == null)
+			return right;
+		if (right.root == null)
+			return left;
+
+		//The largest value of the left tree becomes the middle node
+		Split<N> split = splitLast(left.root, left.black_height);
+		return join(split.left, split.found, right);
+	}
+
+	/* Cut the node with the largest value out of the tree rooted at "node"; the other values are in the left part */
+	private Split<N> splitLast(N node, int black_height) {
+		N left = node.getLeft();
+		N right = node.getRight();
+		int child_black_height = black_height - (node.isRed() ? 0 : 1);
+
+		if (right == null)
+			return new Split<N>(new Part<N>(left, child_black_height), node, null);
+		Split<N> split = splitLast(right, child_black_height);
+		return new Split<N>(join(new Part<N>(left, child_black_height), node, split.left), split.found, null);
+	}
+
+	/* Descend the right spine of "left" to a black node of the black height of "right" and link there */
+	private N joinRight(N left, int left_black_height, N middle, N right, int right_black_height) {
+		if ((left == null || !left.isRed()) && left_black_height == right_black_height) {
+			middle.setColor(TreeNode.RED);
+			link(middle, left, right);
+			return middle;
+		}
+
+		N joined = joinRight(left.getRight(), left_black_height - (left.isRed() ? 0 : 1), middle, right, right_black_height);
+		link(left, left.getLeft(), joined);
+		if (!left.isRed() && joined.isRed() && joined.getRight() != null && joined.getRight().isRed()) {
+			joined.getRight().setColor(TreeNode.BLACK);
+			return rotateLeft(left);
+		}
+		return left;
+	}
+
+	/* Mirror image of joinRight() */
+	private N joinLeft(N left, int left_black_height, N middle, N right, int right_black_height) {
+		if ((right == null || !right.isRed()) && right_black_height == left_black_height) {
+			middle.setColor(TreeNode.RED);
+			link(middle, left, right);
+			return middle;
+		}
+
+		N joined = joinLeft(left, left_black_height, middle, right.getLeft(), right_black_height - (right.isRed() ? 0 : 1));
+		link(right, joined, right.getRight());
+		if (!right.isRed() && joined.isRed() && joined.getLeft() != null && joined.getLeft().isRed()) {
+			joined.getLeft().setColor(TreeNode.BLACK);
+			return rotateRight(right);
+		}
+		return right;
+	}
+
+	/* Rotate "node" down to the left and return its right child, which takes its place */
+	private N rotateLeft(N node) {
+		N pivot = node.getRight();
+		link(node, node.getLeft(), pivot.getLeft());
+		link(pivot, node, pivot.getRight());
+		return pivot;
+	}
+
+	/* Rotate "node" down to the right and return its left child, which takes its place */
+	private N rotateRight(N node) {
+		N pivot = node.getLeft();
+		link(node, pivot.getRight(), node.getRight());
+		link(pivot, pivot.getLeft(), node);
+		return pivot;
+	}
+
+	/* Make "left" and "right" the children of "node", with matching parent links and, if enabled, updated aggregates */
+	private void link(N node, N left, N right) {
+		node.setLeft(left);
+		node.setRight(right);
+		if (left != null) {
+			left.setParent(node);
+			left.setLeft_child_of_parent(true);
+		}
+		if (right != null) {
+			right.setParent(node);
+			right.setLeft_child_of_parent(false);
+		}
+		if (update_aggregates)
+			node.updateAggregates();
+	}
+
+	/* Make the root of "part" black and return the resulting black height */
+	private int blacken(Part<N> part) {
+		if (part.root != null && part.root.isRed()) {
+			part.root.setColor(TreeNode.BLACK);
+			return part.black_height + 1;
+		}
+		return part.black_height;
+	}
+
+	/* Count the black nodes on the left spine below and including "node" */
+	static <N extends TreeNode<N>> int blackHeight(N node) {
+		int black_height = 0;
+		for (; node != null; node = node.getLeft()) {
+			if (!node.isRed())
+				black_height++;
+		}
+		return black_height;
+	}
+}
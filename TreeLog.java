@@ -0,0 +1,231 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/*
+ * An append-only log of the inserts and deletes of a tree, so that the changes made after the last TreeFile snapshot
+ * survive a restart. Operations are collected in memory and written as one frame per group commit: commit() or a full
+ * buffer writes the frame with a single FileChannel call, and the Sync policy decides how often it is forced to disk.
+ *
+ * Layout (big endian):
+ *   int magic, int version, then frames of: int payload length, int CRC32 of the payload, 5 byte operations
+ *   (byte INSERT / DELETE / CLEAR, int value)
+ *
+ * Replaying the log on top of a snapshot that already contains some of its operations gives the same tree, because every
+ * value ends up as its last operation in the log left it, so a crash between writing a snapshot and reset() is harmless.
+ * A frame that was only partly written when the process died fails its length or checksum test; replay() stops there and
+ * cuts it off.
+ */
+public class TreeLog implements AutoCloseable {
+	public static final int MAGIC = 0x5242544c; //"RBTL"
+	public static final int VERSION = 1;
+
+	/* When a group commit is forced to disk */
+	public enum Sync {
+		EVERY_COMMIT, //force on every commit: nothing committed is lost, even if the machine fails
+		INTERVAL, //force on a commit when the last force is older than the interval
+		NEVER //leave it to the operating system: only a machine failure can lose committed operations
+	}
+
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+	private static final byte CLEAR = 3;
+	private static final int HEADER_SIZE = 8;
+	private static final int FRAME_HEADER_SIZE = 8;
+	private static final int OPERATION_SIZE = 5;
+
+	private final FileChannel channel;
+	private final Sync sync;
+	private final long sync_interval_nanos;
+	private final ByteBuffer frame; //the frame of the next group commit: its header followed by the pending operations
+	private final CRC32 checksum = new CRC32();
+	private long last_sync = System.nanoTime();
+	private boolean unsynced = false; //something was written after the last force
+
+	/*
+	 * Open or create the log at "path". "group_size" is the most operations buffered before they are committed anyway, and
+	 * "sync_interval_millis" is only used by Sync.INTERVAL.
+	 */
+	public TreeLog(Path path, Sync sync, long sync_interval_millis, int group_size) throws IOException {
+		if (group_size < 1)
+			throw new IllegalArgumentException("group_size must be positive: " + group_size);
+		this.sync = sync;
+		this.sync_interval_nanos = sync_interval_millis * 1000000L;
+		this.frame = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + group_size * OPERATION_SIZE);
+		this.frame.position(FRAME_HEADER_SIZE);
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE) {
+			//New, or the creation died before the header was complete: nothing was logged yet
+			channel.truncate(0);
+			writeHeader();
+			channel.force(false);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, 0);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				channel.close();
+				throw new IOException(path + " is not a tree log of version " + VERSION);
+			}
+		}
+		scan(null); //new operations go after the last complete frame
+	}
+
+	/* Open or create the log at "path" with group commits of up to 8192 operations, each forced to disk */
+	public TreeLog(Path path) throws IOException {
+		this(path, Sync.EVERY_COMMIT, 0, 8192);
+	}
+
+	public void logInsert(int value) throws IOException {
+		append(INSERT, value);
+	}
+
+	public void logDelete(int value) throws IOException {
+		append(DELETE, value);
+	}
+
+	/* Record that the whole content was replaced by "values" */
+	public void logReplaced(int[] values, int count) throws IOException {
+		append(CLEAR, 0);
+		for (int i = 0; i < count; i++)
+			append(INSERT, values[i]);
+	}
+
+	private void append(byte operation, int value) throws IOException {
+		if (frame.remaining() < OPERATION_SIZE)
+			commit();
+		frame.put(operation).putInt(value);
+	}
+
+	/* Write the pending operations as one frame and force it to disk as the Sync policy asks */
+	public void commit() throws IOException {
+		int payload_length = frame.position() - FRAME_HEADER_SIZE;
+		if (payload_length > 0) {
+			frame.flip();
+			frame.position(FRAME_HEADER_SIZE);
+			checksum.reset();
+			checksum.update(frame);
+			frame.putInt(0, payload_length).putInt(4, (int) checksum.getValue());
+
+			frame.position(0);
+			try {
+				while (frame.hasRemaining())
+					channel.write(frame);
+			} catch (IOException e) {
+				//Keep the operations pending, so the next append cannot overwrite the frame and the caller sees every failure
+				frame.limit(frame.capacity());
+				frame.position(FRAME_HEADER_SIZE + payload_length);
+				throw e;
+			}
+			frame.clear();
+			frame.position(FRAME_HEADER_SIZE);
+			unsynced = true;
+		}
+
+		if (unsynced && (sync == Sync.EVERY_COMMIT
+				|| (sync == Sync.INTERVAL && System.nanoTime() - last_sync >= sync_interval_nanos))) {
+			channel.force(false);
+			last_sync = System.nanoTime();
+			unsynced = false;
+		}
+	}
+
+	/*
+	 * Apply every operation of the log to "tree", in order. The log must not be attached to the tree yet, otherwise the
+	 * replayed operations would be logged again.
+	 */
+	public <N extends TreeNode<N>> void replay(RedBlackTree<N> tree) throws IOException {
+		commit();
+		scan(tree);
+	}
+
+	/* Read the complete frames, applying them to "tree" unless it is null, and cut off a torn frame at the end */
+	private <N extends TreeNode<N>> void scan(RedBlackTree<N> tree) throws IOException {
+		long end = channel.size();
+		long position = HEADER_SIZE;
+		ByteBuffer frame_header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		ByteBuffer payload = ByteBuffer.allocate(0);
+
+		while (position + FRAME_HEADER_SIZE <= end) {
+			frame_header.clear();
+			readFully(frame_header, position);
+			int payload_length = frame_header.getInt(0);
+			if (payload_length <= 0 || payload_length % OPERATION_SIZE != 0 || position + FRAME_HEADER_SIZE + payload_length > end)
+				break;
+
+			if (payload.capacity() < payload_length)
+				payload = ByteBuffer.allocate(payload_length);
+			payload.clear().limit(payload_length);
+			readFully(payload, position + FRAME_HEADER_SIZE);
+			payload.flip();
+			checksum.reset();
+			checksum.update(payload);
+			if ((int) checksum.getValue() != frame_header.getInt(4))
+				break;
+
+			payload.rewind();
+			while (tree != null && payload.hasRemaining()) {
+				byte operation = payload.get();
+				int value = payload.getInt();
+				if (operation == INSERT)
+					tree.insert(value);
+				else if (operation == DELETE)
+					tree.delete(value);
+				else if (operation == CLEAR)
+					tree.bulkLoad(new int[0]); //empty the tree
+			}
+			position += FRAME_HEADER_SIZE + payload_length;
+		}
+
+		if (position < end)
+			channel.truncate(position);
+		channel.position(position);
+	}
+
+	/*
+	 * Drop every operation, e.g. after a snapshot with all of them was written and forced to disk. Only the frames are cut
+	 * off and the header stays as it is, so the file is a valid log at every moment, and a crash in here leaves either the
+	 * old operations (which replay harmlessly on top of the snapshot) or none.
+	 */
+	public void reset() throws IOException {
+		frame.clear();
+		frame.position(FRAME_HEADER_SIZE);
+		channel.truncate(HEADER_SIZE);
+		channel.position(HEADER_SIZE);
+		channel.force(false);
+		last_sync = System.nanoTime();
+		unsynced = false;
+	}
+
+	/* Commit the pending operations and close the file */
+	@Override
+	public void close() throws IOException {
+		try {
+			commit();
+			if (unsynced && sync != Sync.NEVER)
+				channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		channel.position(0);
+		while (header.hasRemaining())
+			channel.write(header);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("unexpected end of the tree log");
+		}
+	}
+}
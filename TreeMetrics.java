@@ -0,0 +1,264 @@
+package application;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Process-wide counters and histograms of the tree operations and of the GUI layout and drawing. All of them are striped
+ * (LongAdder), so threads do not contend on a shared cache line. Nothing is recorded while the registry is disabled: every
+ * call site first checks the static "enabled" flag, so the disabled cost is one volatile read and a well-predicted branch.
+ * The values are published through JMX (registerMBean()) and drawn by the tree on canvas if its metrics overlay is on.
+ *
+ * The JMX getters run on a JMX thread and never touch the tree, which is not thread-safe: the size and shape of the watched
+ * tree are published by the tree itself on the JavaFX thread after every layout (publishShape()).
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+	static volatile boolean enabled = Boolean.getBoolean("tree.metrics"); //read on the hot paths, switched from the GUI or JMX
+
+	static final LongAdder inserts = new LongAdder();
+	static final LongAdder deletes = new LongAdder();
+	static final LongAdder lookups = new LongAdder();
+	static final LongAdder rotations = new LongAdder();
+	static final LongAdder recolors = new LongAdder();
+	static final Histogram comparisons_per_descent = new Histogram(); //nodes compared on one way down the tree
+	static final Histogram rotations_per_insert = new Histogram();
+	static final Histogram recolors_per_insert = new Histogram();
+	static final Histogram layout_nanos = new Histogram(); //duration of one layout
+	static final Histogram frame_nanos = new Histogram(); //duration of one repaint
+	static final Histogram frame_allocated_bytes = new Histogram(); //heap allocated by the drawing thread during one repaint
+
+	private static final TreeMetrics view = new TreeMetrics();
+	private static volatile Tree watched_tree; //the tree whose shape is reported
+	private static volatile int[] tree_shape = new int[3]; //size, height and black-height of watched_tree at its last layout, never changed once published
+	private static boolean registered = false;
+
+	/*
+	 * A histogram with one bucket per power of two, which is enough to tell typical from worst cases at a fixed memory cost.
+	 * Percentiles return the upper bound of their bucket.
+	 */
+	static final class Histogram {
+		private final LongAdder[] buckets = new LongAdder[65]; //bucket i holds the values with i significant bits
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		void record(long value) {
+			value = Math.max(value, 0);
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		long count() {
+			return count.sum();
+		}
+
+		long sum() {
+			return sum.sum();
+		}
+
+		double mean() {
+			long samples = count.sum();
+			return samples == 0 ? 0 : (double) sum.sum() / samples;
+		}
+
+		long max() {
+			return max.get();
+		}
+
+		/* Return an upper bound of the "fraction" quantile, e.g. 0.99 for the 99th percentile */
+		long percentile(double fraction) {
+			long samples = count.sum();
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i].sum();
+				if (seen > 0 && seen >= fraction * samples)
+					return (i == 0) ? 0 : (i >= 63) ? max.get() : Math.min((1L << i) - 1, max.get());
+			}
+			return max.get();
+		}
+
+		void reset() {
+			for (LongAdder bucket : buckets)
+				bucket.reset();
+			count.reset();
+			sum.reset();
+			max.reset();
+		}
+	}
+
+	public static TreeMetrics get() {
+		return view;
+	}
+
+	/* Report the size and shape of "tree", from its next layout on */
+	public static void watch(Tree tree) {
+		watched_tree = tree;
+		tree_shape = new int[3];
+	}
+
+	/* Called by "tree" on the JavaFX thread after a layout; all three values are published together */
+	static void publishShape(Tree tree, int size, int height, int black_height) {
+		if (tree == watched_tree)
+			tree_shape = new int[] { size, height, black_height };
+	}
+
+	/* Publish the metrics as the MBean "application:type=TreeMetrics" of the platform MBean server (once) */
+	public static synchronized void registerMBean() {
+		if (registered)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(view, new ObjectName("application:type=TreeMetrics"));
+			registered = true;
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register the tree metrics", e);
+		}
+	}
+
+	/* Return the bytes allocated so far by the current thread, or -1 if the JVM cannot tell */
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/* Below is the MBean view */
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		TreeMetrics.enabled = enabled;
+	}
+
+	@Override
+	public void reset() {
+		inserts.reset();
+		deletes.reset();
+		lookups.reset();
+		rotations.reset();
+		recolors.reset();
+		comparisons_per_descent.reset();
+		rotations_per_insert.reset();
+		recolors_per_insert.reset();
+		layout_nanos.reset();
+		frame_nanos.reset();
+		frame_allocated_bytes.reset();
+	}
+
+	@Override
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return deletes.sum();
+	}
+
+	@Override
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	@Override
+	public long getComparisons() {
+		return comparisons_per_descent.sum();
+	}
+
+	@Override
+	public long getRotations() {
+		return rotations.sum();
+	}
+
+	@Override
+	public long getRecolors() {
+		return recolors.sum();
+	}
+
+	@Override
+	public double getMeanComparisonsPerDescent() {
+		return comparisons_per_descent.mean();
+	}
+
+	@Override
+	public long getMaxComparisonsPerDescent() {
+		return comparisons_per_descent.max();
+	}
+
+	@Override
+	public double getMeanRotationsPerInsert() {
+		return rotations_per_insert.mean();
+	}
+
+	@Override
+	public double getMeanRecolorsPerInsert() {
+		return recolors_per_insert.mean();
+	}
+
+	@Override
+	public int getTreeSize() {
+		return tree_shape[0];
+	}
+
+	@Override
+	public int getTreeHeight() {
+		return tree_shape[1];
+	}
+
+	@Override
+	public int getBlackHeight() {
+		return tree_shape[2];
+	}
+
+	@Override
+	public long getLayouts() {
+		return layout_nanos.count();
+	}
+
+	@Override
+	public double getMeanLayoutMicros() {
+		return layout_nanos.mean() / 1000;
+	}
+
+	@Override
+	public long getP99LayoutMicros() {
+		return layout_nanos.percentile(0.99) / 1000;
+	}
+
+	@Override
+	public long getFrames() {
+		return frame_nanos.count();
+	}
+
+	@Override
+	public double getMeanFrameMicros() {
+		return frame_nanos.mean() / 1000;
+	}
+
+	@Override
+	public long getP99FrameMicros() {
+		return frame_nanos.percentile(0.99) / 1000;
+	}
+
+	@Override
+	public double getMeanAllocatedBytesPerFrame() {
+		return frame_allocated_bytes.mean();
+	}
+}
@@ -0,0 +1,50 @@
+package application;
+
+/* The JMX view of TreeMetrics; times are in microseconds */
+public interface TreeMetricsMBean {
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	void reset();
+
+	long getInserts();
+
+	long getDeletes();
+
+	long getLookups();
+
+	long getComparisons();
+
+	long getRotations();
+
+	long getRecolors();
+
+	double getMeanComparisonsPerDescent();
+
+	long getMaxComparisonsPerDescent();
+
+	double getMeanRotationsPerInsert();
+
+	double getMeanRecolorsPerInsert();
+
+	int getTreeSize();
+
+	int getTreeHeight();
+
+	int getBlackHeight();
+
+	long getLayouts();
+
+	double getMeanLayoutMicros();
+
+	long getP99LayoutMicros();
+
+	long getFrames();
+
+	double getMeanFrameMicros();
+
+	long getP99FrameMicros();
+
+	double getMeanAllocatedBytesPerFrame();
+}
@@ -0,0 +1,71 @@
+package application;
+
+/*
+ * The red-black tree part of a node with an int value: the value and the sub-tree aggregates over it. The color and links
+ * are in BalancedNode. It has no GUI dependency; Node adds the data for drawing on canvas.
+ */
+public class TreeNode<N extends TreeNode<N>> extends BalancedNode<N> {
+	private int value; //store the value of the node
+
+	//Aggregates over the sub-tree rooted at this node; only maintained after RedBlackTree.enableAggregates()
+	private int subtree_size = 1; //number of nodes
+	private long subtree_sum; //sum of the values
+	private int subtree_min; //smallest value
+	private int subtree_max; //largest value
+
+	public TreeNode()
+	{
+	}
+
+	//Create a node with value assigned
+	public TreeNode(int value)
+	{
+		this.value = value;
+	}
+
+	//Recompute the sub-tree aggregates from the children, whose aggregates must be up to date
+	@Override
+	void updateAggregates() {
+		N left = getLeft();
+		N right = getRight();
+		subtree_size = 1;
+		subtree_sum = value;
+		subtree_min = value;
+		subtree_max = value;
+		if (left != null) {
+			subtree_size += left.getSubtree_size();
+			subtree_sum += left.getSubtree_sum();
+			subtree_min = left.getSubtree_min();
+		}
+		if (right != null) {
+			subtree_size += right.getSubtree_size();
+			subtree_sum += right.getSubtree_sum();
+			subtree_max = right.getSubtree_max();
+		}
+	}
+
+	//Below are setters and getters
+	public int getValue() {
+		return value;
+	}
+
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	public int getSubtree_size() {
+		return subtree_size;
+	}
+
+	public long getSubtree_sum() {
+		return subtree_sum;
+	}
+
+	public int getSubtree_min() {
+		return subtree_min;
+	}
+
+	public int getSubtree_max() {
+		return subtree_max;
+	}
+}
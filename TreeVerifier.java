@@ -0,0 +1,342 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Checks that a tree satisfies the red-black rules: the root is black, no red node has a red child, every path from a node
+ * down to a missing child has the same number of black nodes, the values are in search tree order, and the parent and
+ * left_child_of_parent links match the child links (and, if enabled, the sub-tree aggregates are correct).
+ *
+ * The top levels of the tree are split into fork-join tasks, one per sub-tree, so large trees are checked on all cores.
+ * Below the split depth each task walks its sub-tree with an explicit stack, so even a degenerate tree cannot overflow the
+ * thread stack. Every path carries the open interval its values must lie in and the black nodes seen above it; a path that
+ * gets deeper than the number of nodes means the links form a cycle and is not followed further.
+ *
+ * The tree must not be changed while it is checked.
+ */
+public class TreeVerifier {
+	public static final int MAX_REPORTED_VIOLATIONS = 10; //violations of each kind kept as text, beyond that they are only counted
+
+	/* The rules that are checked */
+	public enum Rule {
+		RED_ROOT, RED_RED, BLACK_HEIGHT, ORDER, LINKS, CYCLE, SIZE, COLOR, AGGREGATES
+	}
+
+	/* The outcome of verify() */
+	public static final class Report {
+		private final long node_count;
+		private final int height;
+		private final int black_height;
+		private final long[] violation_counts; //per Rule
+		private final List<String> violations;
+		private final long nanos;
+
+		private Report(long node_count, int height, int black_height, long[] violation_counts, List<String> violations, long nanos) {
+			this.node_count = node_count;
+			this.height = height;
+			this.black_height = black_height;
+			this.violation_counts = violation_counts;
+			this.violations = violations;
+			this.nanos = nanos;
+		}
+
+		public boolean isValid() {
+			return getViolation_count() == 0;
+		}
+
+		/* Number of nodes reached from the root */
+		public long getNode_count() {
+			return node_count;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/* Black height along the left spine, which every other path is compared with */
+		public int getBlack_height() {
+			return black_height;
+		}
+
+		public long getViolation_count() {
+			long count = 0;
+			for (long rule_count : violation_counts)
+				count += rule_count;
+			return count;
+		}
+
+		public long getViolation_count(Rule rule) {
+			return violation_counts[rule.ordinal()];
+		}
+
+		/* Up to MAX_REPORTED_VIOLATIONS violations of each rule, grouped by rule */
+		public List<String> getViolations() {
+			return violations;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			text.append(isValid() ? "valid" : "INVALID").append(": ").append(node_count).append(" nodes, height ")
+					.append(height).append(", black height ").append(black_height).append(", ").append(getViolation_count())
+					.append(" violations, ").append(nanos / 1000000).append(" ms");
+			for (Rule rule : Rule.values()) {
+				if (violation_counts[rule.ordinal()] > 0)
+					text.append(System.lineSeparator()).append(rule).append(": ").append(violation_counts[rule.ordinal()]);
+			}
+			for (String violation : violations)
+				text.append(System.lineSeparator()).append("  ").append(violation);
+			return text.toString();
+		}
+	}
+
+	/* Partial result of one task, merged into the Report */
+	private static final class Result {
+		long node_count;
+		int height;
+		final long[] violation_counts = new long[Rule.values().length];
+		final List<List<String>> violations = new ArrayList<List<String>>(
+				Collections.nCopies(Rule.values().length, (List<String>) null)); //per Rule, created on the first violation
+
+		void violation(Rule rule, String message) {
+			int index = rule.ordinal();
+			violation_counts[index]++;
+			List<String> messages = violations.get(index);
+			if (messages == null) {
+				messages = new ArrayList<String>();
+				violations.set(index, messages);
+			}
+			if (messages.size() < MAX_REPORTED_VIOLATIONS)
+				messages.add(message);
+		}
+
+		void merge(Result other) {
+			node_count += other.node_count;
+			height = Math.max(height, other.height);
+			for (int index = 0; index < violation_counts.length; index++) {
+				violation_counts[index] += other.violation_counts[index];
+				List<String> other_messages = other.violations.get(index);
+				if (other_messages == null)
+					continue;
+				List<String> messages = violations.get(index);
+				if (messages == null) {
+					messages = new ArrayList<String>();
+					violations.set(index, messages);
+				}
+				for (String message : other_messages) {
+					if (messages.size() < MAX_REPORTED_VIOLATIONS)
+						messages.add(message);
+				}
+			}
+		}
+
+		List<String> allViolations() {
+			List<String> all = new ArrayList<String>();
+			for (List<String> messages : violations) {
+				if (messages != null)
+					all.addAll(messages);
+			}
+			return all;
+		}
+	}
+
+	/* Check "tree" on the common fork-join pool */
+	public static <N extends TreeNode<N>> Report verify(RedBlackTree<N> tree, boolean check_aggregates) {
+		return verify(tree, check_aggregates, ForkJoinPool.commonPool());
+	}
+
+	public static <N extends TreeNode<N>> Report verify(RedBlackTree<N> tree, boolean check_aggregates, ForkJoinPool pool) {
+		long start = System.nanoTime();
+		N root = tree.getRoot();
+		int black_height = 0;
+		int spine_length = 0;
+		for (N node = root; node != null && spine_length <= tree.size(); node = node.getLeft(), spine_length++) {
+			if (node.getColor() == TreeNode.BLACK)
+				black_height++;
+		}
+		//Enough tasks for every worker to steal a few; the sub-trees below are checked sequentially
+		int split_depth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 3;
+
+		Result result = new Result();
+		if (root != null) {
+			if (root.getColor() != TreeNode.BLACK)
+				result.violation(Rule.RED_ROOT, "root " + root.getValue() + " is red");
+			if (root.getParent() != null)
+				result.violation(Rule.LINKS, "root " + root.getValue() + " has the parent " + root.getParent().getValue());
+			result.merge(pool.invoke(new VerifyTask<N>(root, Long.MIN_VALUE, Long.MAX_VALUE, 0, 1, black_height,
+					Math.max(tree.size(), 1), split_depth, check_aggregates)));
+		}
+		if (result.node_count != tree.size())
+			result.violation(Rule.SIZE, "size is " + tree.size() + " but " + result.node_count + " nodes are reachable");
+
+		return new Report(result.node_count, result.height, black_height, result.violation_counts, result.allViolations(),
+				System.nanoTime() - start);
+	}
+
+	/* Checks the sub-tree of one node; "low" and "high" are the exclusive bounds of its values */
+	private static final class VerifyTask<N extends TreeNode<N>> extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+
+		private final N node;
+		private final long low;
+		private final long high;
+		private final int blacks_above; //black nodes on the path above "node"
+		private final int depth; //depth of "node", the root is at 1
+		private final int black_height;
+		private final int max_depth; //a deeper path can only be a cycle
+		private final int split_depth;
+		private final boolean check_aggregates;
+
+		VerifyTask(N node, long low, long high, int blacks_above, int depth, int black_height, int max_depth, int split_depth,
+				boolean check_aggregates) {
+			this.node = node;
+			this.low = low;
+			this.high = high;
+			this.blacks_above = blacks_above;
+			this.depth = depth;
+			this.black_height = black_height;
+			this.max_depth = max_depth;
+			this.split_depth = split_depth;
+			this.check_aggregates = check_aggregates;
+		}
+
+		@Override
+		protected Result compute() {
+			Result result = new Result();
+			if (depth >= split_depth) {
+				verifySequentially(result);
+				return result;
+			}
+
+			int blacks = checkNode(node, low, high, blacks_above, depth, result);
+			VerifyTask<N> left_task = null;
+			if (node.getLeft() != null && depth < max_depth) {
+				left_task = new VerifyTask<N>(node.getLeft(), low, node.getValue(), blacks, depth + 1, black_height, max_depth,
+						split_depth, check_aggregates);
+				left_task.fork();
+			}
+			if (node.getRight() != null && depth < max_depth)
+				result.merge(new VerifyTask<N>(node.getRight(), node.getValue(), high, blacks, depth + 1, black_height,
+						max_depth, split_depth, check_aggregates).compute());
+			if (left_task != null)
+				result.merge(left_task.join());
+			return result;
+		}
+
+		/* Walk the sub-tree in pre-order with an explicit stack of the pending nodes and their path state */
+		@SuppressWarnings("unchecked")
+		private void verifySequentially(Result result) {
+			int capacity = 64;
+			Object[] nodes = new Object[capacity]; //all of type N; a generic array cannot be created
+			long[] lows = new long[capacity];
+			long[] highs = new long[capacity];
+			int[] blacks = new int[capacity];
+			int[] depths = new int[capacity];
+
+			int top = 0;
+			nodes[0] = node;
+			lows[0] = low;
+			highs[0] = high;
+			blacks[0] = blacks_above;
+			depths[0] = depth;
+			while (top >= 0) {
+				N current_node = (N) nodes[top];
+				long current_low = lows[top];
+				long current_high = highs[top];
+				int current_depth = depths[top];
+				int current_blacks = checkNode(current_node, current_low, current_high, blacks[top], current_depth, result);
+				top--;
+				if (current_depth >= max_depth)
+					continue;
+
+				if (top + 2 >= capacity) {
+					capacity *= 2;
+					nodes = Arrays.copyOf(nodes, capacity);
+					lows = Arrays.copyOf(lows, capacity);
+					highs = Arrays.copyOf(highs, capacity);
+					blacks = Arrays.copyOf(blacks, capacity);
+					depths = Arrays.copyOf(depths, capacity);
+				}
+				if (current_node.getRight() != null) {
+					top++;
+					nodes[top] = current_node.getRight();
+					lows[top] = current_node.getValue();
+					highs[top] = current_high;
+					blacks[top] = current_blacks;
+					depths[top] = current_depth + 1;
+				}
+				if (current_node.getLeft() != null) {
+					top++;
+					nodes[top] = current_node.getLeft();
+					lows[top] = current_low;
+					highs[top] = current_node.getValue();
+					blacks[top] = current_blacks;
+					depths[top] = current_depth + 1;
+				}
+			}
+		}
+
+		/* Check the rules local to "node" and return the black nodes on the path down to and including it */
+		private int checkNode(N node, long low, long high, int blacks_above, int depth, Result result) {
+			result.node_count++;
+			result.height = Math.max(result.height, depth);
+			int value = node.getValue();
+			boolean red = node.getColor() == TreeNode.RED;
+			int blacks = red ? blacks_above : blacks_above + 1;
+			N left = node.getLeft();
+			N right = node.getRight();
+
+			if (value <= low || value >= high)
+				result.violation(Rule.ORDER, "value " + value + " is outside of its search interval (" + bound(low) + ", " + bound(high) + ")");
+			if (node.getColor() != TreeNode.RED && node.getColor() != TreeNode.BLACK)
+				result.violation(Rule.COLOR, "node " + value + " has the unknown color " + node.getColor());
+			if (depth >= max_depth && (left != null || right != null))
+				result.violation(Rule.CYCLE, "node " + value + " is at depth " + depth + ", the links form a cycle");
+
+			if (left == null || right == null) {
+				if (blacks != black_height)
+					result.violation(Rule.BLACK_HEIGHT, "path ending below " + value + " has " + blacks + " black nodes instead of " + black_height);
+			}
+			if (left != null) {
+				if (red && left.getColor() == TreeNode.RED)
+					result.violation(Rule.RED_RED, "red node " + value + " has the red left child " + left.getValue());
+				if (left.getParent() != node)
+					result.violation(Rule.LINKS, "left child " + left.getValue() + " of " + value + " does not link back to it");
+				if (!left.isLeft_child_of_parent())
+					result.violation(Rule.LINKS, "left child " + left.getValue() + " of " + value + " is marked as a right child");
+			}
+			if (right != null) {
+				if (red && right.getColor() == TreeNode.RED)
+					result.violation(Rule.RED_RED, "red node " + value + " has the red right child " + right.getValue());
+				if (right.getParent() != node)
+					result.violation(Rule.LINKS, "right child " + right.getValue() + " of " + value + " does not link back to it");
+				if (right.isLeft_child_of_parent())
+					result.violation(Rule.LINKS, "right child " + right.getValue() + " of " + value + " is marked as a left child");
+			}
+
+			if (check_aggregates) {
+				int size = 1 + (left == null ? 0 : left.getSubtree_size()) + (right == null ? 0 : right.getSubtree_size());
+				long sum = value + (left == null ? 0 : left.getSubtree_sum()) + (right == null ? 0 : right.getSubtree_sum());
+				int min = left == null ? value : left.getSubtree_min();
+				int max = right == null ? value : right.getSubtree_max();
+				if (node.getSubtree_size() != size || node.getSubtree_sum() != sum || node.getSubtree_min() != min
+						|| node.getSubtree_max() != max)
+					result.violation(Rule.AGGREGATES, "aggregates of " + value + " do not match its children");
+			}
+			return blacks;
+		}
+
+		private static String bound(long bound) {
+			return bound == Long.MIN_VALUE ? "-inf" : bound == Long.MAX_VALUE ? "+inf" : Long.toString(bound);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package application;
+
+import java.util.Random;
+
+/*
+ * Key sequences for the benchmarks. All sequences are generated from a fixed seed, so every run measures the same input.
+ */
+public enum KeyDistribution {
+	RANDOM, SORTED, REVERSE, ZIPFIAN;
+
+	/* Return "count" keys following this distribution */
+	public int[] keys(int count, long seed) {
+		int[] keys = new int[count];
+		Random random = new Random(seed);
+
+		switch (this) {
+		case RANDOM:
+			for (int i = 0; i < count; i++)
+				keys[i] = random.nextInt();
+			break;
+		case SORTED:
+			for (int i = 0; i < count; i++)
+				keys[i] = i;
+			break;
+		case REVERSE:
+			for (int i = 0; i < count; i++)
+				keys[i] = count - i;
+			break;
+		case ZIPFIAN:
+			Zipf zipf = new Zipf(count, 0.99, random);
+			for (int i = 0; i < count; i++)
+				keys[i] = zipf.next();
+			break;
+		}
+
+		return keys;
+	}
+
+	/*
+	 * Zipf distributed ranks in [0, items) following Gray et al., "Quickly Generating Billion-Record Synthetic Databases":
+	 * constant time per key after an O(items) setup.
+	 */
+	static class Zipf {
+		private final int items;
+		private final double theta;
+		private final double zeta_n;
+		private final double alpha;
+		private final double eta;
+		private final Random random;
+
+		Zipf(int items, double theta, Random random) {
+			this.items = items;
+			this.theta = theta;
+			this.random = random;
+
+			double zeta = 0;
+			for (int i = 1; i <= items; i++)
+				zeta += 1.0 / Math.pow(i, theta);
+			this.zeta_n = zeta;
+			double zeta_2 = 1.0 + 1.0 / Math.pow(2, theta);
+
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta_2 / zeta_n);
+		}
+
+		int next() {
+			double u = random.nextDouble();
+			double uz = u * zeta_n;
+			if (uz < 1.0)
+				return 0;
+			if (uz < 1.0 + Math.pow(0.5, theta))
+				return 1;
+			return (int) (items * Math.pow(eta * u - eta + 1, alpha));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package application;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Benchmarks of the GUI paths on an offscreen Canvas that is never shown: the layout after one insert, the layout of a
+ * whole tree, a full repaint and a drag step. The canvas only records the drawing commands, so these numbers measure the
+ * tree side of rendering, not the rasterization by the JavaFX pipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g" })
+public class LayoutRenderBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPFIAN" })
+	public KeyDistribution distribution;
+
+	private int[] keys;
+	private Canvas canvas;
+	private GraphicsContext gc;
+	private Tree tree;
+	private int next_key; //the key inserted by insertAndLayout(), walks through values not in the tree
+	private int inserted_key; //the key added by the last insertAndLayout(), removed again by the next one
+	private boolean key_inserted; //whether inserted_key is in the tree
+	private boolean drag_right; //alternates the drag direction so the tree stays in place
+
+	@Setup(Level.Trial)
+	public void createKeys() {
+		keys = distribution.keys(size, 42);
+		canvas = new Canvas(640, 480);
+		gc = canvas.getGraphicsContext2D();
+	}
+
+	@Setup(Level.Iteration)
+	public void buildTree() {
+		tree = new Tree(canvas, gc);
+		tree.bulkLoad(keys);
+		tree.showTree(true);
+		next_key = Integer.MIN_VALUE;
+		key_inserted = false;
+	}
+
+	/*
+	 * One insert followed by the layout and the repaint of the dirty regions, as MainGUI does it. The key inserted by the
+	 * previous invocation is deleted first, so the tree keeps "size" (plus one) keys however many invocations run.
+	 */
+	@Benchmark
+	public Tree insertAndLayout() {
+		if (key_inserted)
+			tree.delete(inserted_key);
+		while (!tree.insertNode(new Node(next_key, tree, canvas, gc)))
+			next_key++;
+		inserted_key = next_key++;
+		key_inserted = true;
+		tree.showTree(true);
+		return tree;
+	}
+
+	/* Layout of the whole tree from scratch */
+	@Benchmark
+	public Tree layoutAll() {
+		tree.invalidateLayout();
+		tree.updateLayout();
+		return tree;
+	}
+
+	/* Redraw of every node and edge */
+	@Benchmark
+	public Tree repaintAll() {
+		tree.repaintAll();
+		tree.showTree(false);
+		return tree;
+	}
+
+	/* One mouse-move step while the root, i.e. the whole tree, is dragged; the mouse works in viewport coordinates */
+	@Benchmark
+	public Tree dragRoot() {
+		double x = (tree.getRoot().getX() + tree.getRadius() / 2 - tree.getView_x()) * tree.getView_scale();
+		double y = (tree.getRoot().getY() + tree.getRadius() / 2 - tree.getView_y()) * tree.getView_scale();
+		tree.checkNodeDragging(x, y);
+		tree.doNodeDragging(x + (drag_right ? 1 : -1), y);
+		tree.finishNodeDragging(x, y);
+		drag_right = !drag_right;
+		return tree;
+	}
+}
@@ -0,0 +1,134 @@
+package application;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Benchmarks of lookups and updates on an existing tree of "size" keys. Every invocation runs OPERATIONS operations, of
+ * which update_percent are updates and the rest are contains() lookups, so the reported throughput is in operations per
+ * second. Updates come in pairs: a key of the tree is deleted and inserted again by the next update, so every update
+ * changes the tree and the tree keeps its size across invocations. The updated keys run through the keys of the tree in
+ * shuffled order, so that sorted distributions are not updated in key order.
+ *
+ * hit_percent of the lookups search a key of the tree, drawn from the keys the tree was built from, so that popular keys
+ * of the ZIPFIAN distribution are looked up more often; the others search a key that is not in the tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g" })
+public class MixedWorkloadBenchmark {
+	private static final int OPERATIONS = 1 << 16;
+
+	@Param({ "100", "10000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPFIAN" })
+	public KeyDistribution distribution;
+
+	@Param({ "0", "10", "50" })
+	public int update_percent;
+
+	@Param({ "100", "50" })
+	public int hit_percent;
+
+	private int[] operations; //the keys of the lookups
+	private int[] update_keys; //the distinct keys of the tree in shuffled order
+	private int update_index = 0; //the next entry of update_keys to be deleted and inserted again
+	private IntTree tree;
+	private CompactTree compact_tree;
+
+	@Setup(Level.Trial)
+	public void buildTrees() {
+		int[] keys = distribution.keys(size, 42);
+
+		tree = new IntTree();
+		tree.bulkLoad(keys);
+		compact_tree = new CompactTree(size);
+		for (int key : keys)
+			compact_tree.insert(key);
+
+		update_keys = tree.toArray();
+		operations = lookupKeys(keys, update_keys);
+		Random random = new Random(11);
+		for (int i = update_keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int key = update_keys[i];
+			update_keys[i] = update_keys[j];
+			update_keys[j] = key;
+		}
+	}
+
+	/* Draw the lookup keys: hit_percent of them from "keys", the others outside "sorted_keys", the distinct keys in order */
+	private int[] lookupKeys(int[] keys, int[] sorted_keys) {
+		int[] lookups = new int[OPERATIONS];
+		Random random = new Random(7);
+		for (int i = 0; i < OPERATIONS; i++) {
+			if (random.nextInt(100) < hit_percent) {
+				lookups[i] = keys[random.nextInt(keys.length)];
+			} else {
+				int key = random.nextInt();
+				while (Arrays.binarySearch(sorted_keys, key) >= 0)
+					key = random.nextInt();
+				lookups[i] = key;
+			}
+		}
+		return lookups;
+	}
+
+	/* The key of the next update: a key of the tree for a delete (even "choice"), the same key again for the insert after it */
+	private int updateKey(int choice) {
+		int key = update_keys[update_index];
+		if (choice % 2 == 1)
+			update_index = (update_index + 1) % update_keys.length;
+		return key;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public void mixedTree(Blackhole blackhole) {
+		int updates = update_percent & ~1; //whole delete and insert pairs
+		for (int i = 0; i < operations.length; i++) {
+			int choice = i % 100;
+			if (choice < updates && choice % 2 == 0)
+				blackhole.consume(tree.delete(updateKey(choice)));
+			else if (choice < updates)
+				blackhole.consume(tree.insert(updateKey(choice)));
+			else
+				blackhole.consume(tree.contains(operations[i]));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public void mixedCompactTree(Blackhole blackhole) {
+		int updates = update_percent & ~1; //whole delete and insert pairs
+		for (int i = 0; i < operations.length; i++) {
+			int choice = i % 100;
+			if (choice < updates && choice % 2 == 0)
+				blackhole.consume(compact_tree.delete(updateKey(choice)));
+			else if (choice < updates)
+				blackhole.consume(compact_tree.insert(updateKey(choice)));
+			else
+				blackhole.consume(compact_tree.contains(operations[i]));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package application;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Benchmarks for building a tree without GUI: key by key through the node based IntTree and the array based CompactTree,
+ * and bottom-up through bulkLoad(). The same keys go into a LongTree (widened to long) and into a KeyTree of Integer with
+ * the natural order, to compare the primitive and the Comparator based descents on the shared balancing code. Lookups and
+ * updates on an existing tree are in MixedWorkloadBenchmark.
+ *
+ * Build the JMH runner with benchmark/pom.xml and run it, adding "-prof gc" to get the allocation rate next to the
+ * throughput, e.g.
+ *   mvn -f benchmark/pom.xml package
+ *   java -jar benchmark/target/benchmarks.jar TreeBenchmark -prof gc -p size=1000000
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms4g", "-Xmx4g" })
+public class TreeBenchmark {
+
+	@Param({ "100", "10000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "RANDOM", "SORTED", "REVERSE", "ZIPFIAN" })
+	public KeyDistribution distribution;
+
+	private int[] keys; //the keys the trees are built from
+	private Integer[] boxed_keys; //the same keys boxed ahead of time, so that KeyTree is measured without the boxing
+
+	@Setup(Level.Trial)
+	public void createKeys() {
+		keys = distribution.keys(size, 42);
+		boxed_keys = new Integer[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			boxed_keys[i] = keys[i];
+	}
+
+	/* Build a whole tree with one insertNode() per key; reported per tree, so multiply by size for keys per second */
+	@Benchmark
+	public IntTree insertTree() {
+		IntTree new_tree = new IntTree();
+		for (int key : keys)
+			new_tree.insert(key);
+		return new_tree;
+	}
+
+	@Benchmark
+	public CompactTree insertCompactTree() {
+		CompactTree new_tree = new CompactTree(size);
+		for (int key : keys)
+			new_tree.insert(key);
+		return new_tree;
+	}
+
+	@Benchmark
+	public IntTree bulkLoadTree() {
+		IntTree new_tree = new IntTree();
+		new_tree.bulkLoad(keys);
+		return new_tree;
+	}
+
+	@Benchmark
+	public LongTree insertLongTree() {
+		LongTree new_tree = new LongTree();
+		for (int key : keys)
+			new_tree.insert(key);
+		return new_tree;
+	}
+
+	@Benchmark
+	public KeyTree<Integer> insertKeyTree() {
+		KeyTree<Integer> new_tree = KeyTree.natural();
+		for (Integer key : boxed_keys)
+			new_tree.insert(key);
+		return new_tree;
+	}
+}